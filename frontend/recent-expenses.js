@@ -32,7 +32,8 @@ document.addEventListener('DOMContentLoaded', function() {
 function loadExpenses() {
     console.log('Loading expenses...');
 
-    fetch('/api/expenses')
+    // Only the newest expenses are shown, so ask the server for just that page
+    fetch('/api/expenses?limit=10&sort=date_desc')
         .then(response => {
             if (!response.ok) {
                 throw new Error(`HTTP error! Status: ${response.status}`);
@@ -41,7 +42,7 @@ function loadExpenses() {
         })
         .then(data => {
             console.log('Expenses loaded:', data);
-            expenses = data;
+            expenses = Array.isArray(data) ? data : data.items;
             updateRecentExpensesTable();
         })
         .catch(error => {
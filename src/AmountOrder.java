@@ -0,0 +1,155 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The current rows of one snapshot ordered by amount, then by row, used to page expenses by
+ * amount.
+ *
+ * <p>The order is built lazily, on the first amount-ordered query against a snapshot, so writes
+ * never pay for it. The store keeps the newest order built so far, and a later snapshot derives its
+ * own from that one: rows that are no longer current are dropped, and the rows added since are
+ * sorted and merged in. That costs one pass plus sorting the new rows, instead of sorting the whole
+ * ledger again.
+ */
+final class AmountOrder {
+
+  private final long version;
+  private final int rowCount;
+  private final long[] cents;
+  private final int[] rows;
+  private final int length;
+
+  private AmountOrder(long version, int rowCount, long[] cents, int[] rows, int length) {
+    this.version = version;
+    this.rowCount = rowCount;
+    this.cents = cents;
+    this.rows = rows;
+    this.length = length;
+  }
+
+  /**
+   * Builds the amount order of a snapshot and offers it as the newest order to derive from.
+   *
+   * @param snapshot The snapshot.
+   * @param latest   The newest order built for any snapshot of the same store, or null.
+   * @return The amount order of the snapshot.
+   */
+  static AmountOrder build(ExpenseSnapshot snapshot, AtomicReference<AmountOrder> latest) {
+    AmountOrder base = latest.get();
+    AmountOrder order;
+    if (base != null && base.version == snapshot.version()) {
+      return base;
+    } else if (base != null && base.version < snapshot.version()) {
+      order = derive(snapshot, base);
+    } else {
+      // An older snapshot still sees rows the newer order has dropped
+      order = sortCurrentRows(snapshot);
+    }
+    latest.accumulateAndGet(order, (current, built) ->
+        current == null || built.version > current.version ? built : current);
+    return order;
+  }
+
+  int size() {
+    return length;
+  }
+
+  long amountCents(int position) {
+    return cents[position];
+  }
+
+  int row(int position) {
+    return rows[position];
+  }
+
+  private static AmountOrder sortCurrentRows(ExpenseSnapshot snapshot) {
+    int rowCount = snapshot.rowCount();
+    long[] cents = new long[snapshot.size()];
+    int[] rows = new int[cents.length];
+    int[] count = new int[1];
+    snapshot.scan((row, epochDay, amountCents, categoryId) -> {
+      cents[count[0]] = amountCents;
+      rows[count[0]++] = row;
+    });
+    sort(cents, rows, count[0]);
+    return new AmountOrder(snapshot.version(), rowCount, cents, rows, count[0]);
+  }
+
+  /**
+   * Drops the rows of an older order that the snapshot no longer sees, and merges in the rows
+   * added after it.
+   */
+  private static AmountOrder derive(ExpenseSnapshot snapshot, AmountOrder base) {
+    int rowCount = snapshot.rowCount();
+    int added = rowCount - base.rowCount;
+    long[] addedCents = new long[added];
+    int[] addedRows = new int[added];
+    int[] count = new int[1];
+    snapshot.scan(base.rowCount, rowCount, (row, epochDay, amountCents, categoryId) -> {
+      addedCents[count[0]] = amountCents;
+      addedRows[count[0]++] = row;
+    });
+    sort(addedCents, addedRows, count[0]);
+
+    // Rows of the older order come first within an amount, so only strictly smaller amounts jump ahead
+    long[] cents = new long[snapshot.size()];
+    int[] rows = new int[cents.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < base.length) {
+      int row = base.rows[i];
+      if (!snapshot.isCurrent(row)) {
+        i++;
+      } else if (j < count[0] && addedCents[j] < base.cents[i]) {
+        cents[k] = addedCents[j];
+        rows[k++] = addedRows[j++];
+      } else {
+        cents[k] = base.cents[i++];
+        rows[k++] = row;
+      }
+    }
+    for (; j < count[0]; j++, k++) {
+      cents[k] = addedCents[j];
+      rows[k] = addedRows[j];
+    }
+    return new AmountOrder(snapshot.version(), rowCount, cents, rows, k);
+  }
+
+  /**
+   * Sorts rows, given in ascending order, by amount; equal amounts keep their row order.
+   */
+  private static void sort(long[] cents, int[] rows, int count) {
+    boolean fitsInt = true;
+    for (int i = 0; i < count; i++) {
+      fitsInt &= cents[i] >= Integer.MIN_VALUE && cents[i] <= Integer.MAX_VALUE;
+    }
+    if (fitsInt) {
+      // Pack (amount, row) into one long so a single primitive sort orders by amount, then by row
+      long[] keys = new long[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = (cents[i] << 32) | rows[i];
+      }
+      Arrays.sort(keys);
+      for (int i = 0; i < count; i++) {
+        cents[i] = keys[i] >> 32;
+        rows[i] = (int) keys[i];
+      }
+    } else {
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+      // A stable sort, so equal amounts stay in row order
+      Arrays.sort(order, (a, b) -> Long.compare(cents[a], cents[b]));
+      long[] sortedCents = new long[count];
+      int[] sortedRows = new int[count];
+      for (int i = 0; i < count; i++) {
+        sortedCents[i] = cents[order[i]];
+        sortedRows[i] = rows[order[i]];
+      }
+      System.arraycopy(sortedCents, 0, cents, 0, count);
+      System.arraycopy(sortedRows, 0, rows, 0, count);
+    }
+  }
+}
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
@@ -6,7 +7,6 @@ import java.util.Scanner;
 
 public class BudgetApp {
 
-  private static final String FILE_PATH = "res/expenses.txt";
   private static final String MENU_OPTION_ADD_EXPENSE = "1";
   private static final String MENU_OPTION_SHOW_REPORTS = "2";
   private static final String MENU_OPTION_MANAGE_CATEGORIES = "3";
@@ -17,7 +17,8 @@ public class BudgetApp {
   private static final String SUBMENU_OPTION_COMPARE_EXPENSES_THIS_YEAR = "3";
   private static final String SUBMENU_OPTION_BACK_TO_MAIN_MENU = "4";
 
-  final List<Expense> expenses;
+  final ExpenseStore expenses;
+  final ExpenseRepository repository;
   public final ExpenseCategoryManager categoryManager;
   private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy");
   public Scanner scanner;
@@ -25,7 +26,19 @@ public class BudgetApp {
   public BudgetApp() {
     categoryManager = new ExpenseCategoryManager();
     scanner = new Scanner(System.in);
-    expenses = Expense.loadExpensesFromFile(FILE_PATH);
+    repository = ExpenseRepository.getInstance();
+    expenses = repository.getStore();
+  }
+
+  /**
+   * Adds an expense through the shared repository, which appends it to the expense log. The
+   * full expenses file is exported on exit.
+   *
+   * @param expense The expense to record.
+   * @return The id of the new expense.
+   */
+  public int recordExpense(Expense expense) throws IOException {
+    return repository.add(expense);
   }
 
   public void run() {
@@ -43,7 +56,7 @@ public class BudgetApp {
           categoryManager.manageCategories(scanner);
           break;
         case MENU_OPTION_EXIT:
-          Expense.saveExpensesToFile(expenses, FILE_PATH);
+          repository.export();
           exit();
           return;
         default:
@@ -65,7 +78,7 @@ public class BudgetApp {
 
   private void showReportsMenu() {
     boolean isSubMenuRunning = true;
-    ExpenseReportGenerator reportGenerator = new ExpenseReportGenerator(expenses);
+    ExpenseReportGenerator reportGenerator = new ExpenseReportGenerator(expenses, scanner);
     while (isSubMenuRunning) {
       System.out.println("Reports Menu:");
       System.out.println("1. Expense report by category and period");
@@ -229,8 +242,12 @@ public class BudgetApp {
     Date date = enterExpenseDate();
 
     Expense expense = new Expense(category, amount, dateFormat.format(date));
-    expenses.add(expense);
-    System.out.println("Expense successfully added.");
+    try {
+      recordExpense(expense);
+      System.out.println("Expense successfully added.");
+    } catch (IOException e) {
+      System.err.println("Error saving expense: " + e.getMessage());
+    }
   }
 
   /**
@@ -252,5 +269,6 @@ public class BudgetApp {
   void exit() {
     System.out.println("Exit");
     scanner.close();
+    repository.close();
   }
 }
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded in-memory journal of the changes made to an {@link ExpenseStore}.
+ *
+ * <p>Every change is recorded with the store version that made it visible; a batch shares one
+ * version. Clients that hold the ledger at some version ask for the changes after it instead of
+ * downloading everything again. The journal keeps the most recent changes only: once a change a
+ * client needs has been dropped, {@link #since(long, long)} tells it to resync.
+ */
+public class ChangeJournal {
+
+  public static final int DEFAULT_CAPACITY = Integer.getInteger("expenses.journal.capacity", 10000);
+
+  /**
+   * Kinds of journaled changes.
+   */
+  public enum Kind {
+    ADD, UPDATE, DELETE, CATEGORY_ADD, CATEGORY_REMOVE
+  }
+
+  /**
+   * One change.
+   *
+   * @param version  The store version that made the change visible.
+   * @param kind     The kind of change.
+   * @param id       The expense id, 0 for category changes.
+   * @param row      The row holding the new values of an added or updated expense, otherwise -1.
+   * @param oldRow   The row holding the previous values of an updated or deleted expense,
+   *                 otherwise -1.
+   * @param category The category of a category change, otherwise null.
+   */
+  public record Change(long version, Kind kind, int id, int row, int oldRow, String category) {
+  }
+
+  private final Change[] ring;
+  private int start;
+  private int count;
+  // Changes up to and including this version may be missing from the journal
+  private long trimmedThrough;
+
+  /**
+   * Creates an empty journal.
+   *
+   * @param capacity    The most changes to keep.
+   * @param baseVersion The version the journal starts at; older versions always need a resync.
+   */
+  public ChangeJournal(int capacity, long baseVersion) {
+    this.ring = new Change[Math.max(1, capacity)];
+    this.trimmedThrough = baseVersion;
+  }
+
+  /**
+   * Appends a change, dropping the oldest one if the journal is full. Changes must be recorded in
+   * version order.
+   *
+   * @param change The change.
+   */
+  public synchronized void record(Change change) {
+    if (count == ring.length) {
+      trimmedThrough = ring[start].version();
+      ring[start] = change;
+      start = (start + 1) % ring.length;
+    } else {
+      ring[(start + count++) % ring.length] = change;
+    }
+  }
+
+  /**
+   * Returns the changes made after a version, oldest first.
+   *
+   * @param version The version the client holds.
+   * @param upTo    The version of the snapshot the changes are read from; later changes are left
+   *                out.
+   * @return The changes, or null if some of them are no longer in the journal or the version was
+   *     not handed out by this store, so the client must download everything again.
+   */
+  public synchronized List<Change> since(long version, long upTo) {
+    if (version < trimmedThrough || version > upTo) {
+      return null;
+    }
+    // Versions increase along the ring, so binary search for the first newer change
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ring[(start + mid) % ring.length].version() <= version) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    List<Change> changes = new ArrayList<>();
+    for (int i = low; i < count; i++) {
+      Change change = ring[(start + i) % ring.length];
+      if (change.version() > upTo) {
+        break;
+      }
+      changes.add(change);
+    }
+    return changes;
+  }
+}
@@ -0,0 +1,298 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response compression negotiated from the request's {@code Accept-Encoding} header.
+ *
+ * <p>Bodies smaller than {@code server.compression.minSize} bytes (default 1024) are sent as they
+ * are, since compressing them saves less than it costs. Dynamic responses are compressed while they
+ * are written; static assets are compressed once and the result is cached until the file changes.
+ */
+public final class Compression {
+    static final int MIN_SIZE = Integer.getInteger("server.compression.minSize", 1024);
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    private static final Map<String, CachedAsset> ASSET_CACHE = new ConcurrentHashMap<>();
+
+    private Compression() {
+    }
+
+    /**
+     * Loads the body of an asset when it has to be compressed.
+     */
+    @FunctionalInterface
+    public interface AssetLoader {
+        byte[] load() throws IOException;
+    }
+
+    private static final class CachedAsset {
+        final long lastModified;
+        final long length;
+        final byte[] compressed;
+
+        CachedAsset(long lastModified, long length, byte[] compressed) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * Picks the content coding for a response: gzip or deflate, whichever the client weighs
+     * higher (gzip on a tie), or null to send the body as is.
+     *
+     * @param exchange The exchange.
+     * @return {@code "gzip"}, {@code "deflate"} or null.
+     */
+    public static String negotiate(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (header == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : header.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        // An explicit q for a coding overrides the wildcard
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /**
+     * Returns whether a content type is worth compressing. Images are already compressed.
+     *
+     * @param contentType The content type.
+     * @return True for text, JavaScript, JSON and SVG.
+     */
+    public static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("image/svg");
+    }
+
+    /**
+     * Returns the ETag of a compressed variant. A strong ETag must differ between the bytes of
+     * different content codings.
+     *
+     * @param etag     The ETag of the uncompressed response.
+     * @param encoding The content coding.
+     * @return The ETag of the compressed variant.
+     */
+    public static String variantTag(String etag, String encoding) {
+        return etag.endsWith("\"") ? etag.substring(0, etag.length() - 1) + "+" + encoding + "\"" : etag;
+    }
+
+    /**
+     * Strips the content coding suffix added by {@link #variantTag(String, String)}.
+     *
+     * @param etag An ETag, possibly of a compressed variant.
+     * @return The ETag of the uncompressed response.
+     */
+    public static String baseTag(String etag) {
+        for (String encoding : new String[] {GZIP, DEFLATE}) {
+            String suffix = "+" + encoding + "\"";
+            if (etag.endsWith(suffix)) {
+                return etag.substring(0, etag.length() - suffix.length()) + "\"";
+            }
+        }
+        return etag;
+    }
+
+    /**
+     * Returns a stream for a response body of unknown length. Nothing is sent until the body
+     * either exceeds {@link #MIN_SIZE}, in which case it is sent chunked and compressed as it is
+     * written, or is closed, in which case it is sent as is with a fixed length. Closing the
+     * stream completes the response.
+     *
+     * @param exchange The exchange; its response headers must already be set.
+     * @param status   The status code.
+     * @return The response body stream.
+     */
+    public static OutputStream responseBody(HttpExchange exchange, int status) {
+        exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+        return new ResponseStream(exchange, status, negotiate(exchange));
+    }
+
+    /**
+     * Sends a complete response body, compressed if the client accepts it and it is large enough.
+     *
+     * @param exchange The exchange; its response headers must already be set.
+     * @param status   The status code.
+     * @param body     The body.
+     */
+    public static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        try (OutputStream os = responseBody(exchange, status)) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * Sends a compressed static asset if the client accepts compression and the asset is
+     * compressible and large enough. The compressed bytes are cached per asset and coding, and
+     * recompressed only when the asset's modification time or length changes.
+     *
+     * @param exchange     The exchange.
+     * @param key          Identifies the asset, for example its absolute path.
+     * @param lastModified The modification time of the asset.
+     * @param length       The length of the asset.
+     * @param contentType  The content type of the asset.
+     * @param loader       Reads the asset if it has to be compressed.
+     * @return True if the response was sent; otherwise the caller sends the asset as is.
+     */
+    public static boolean sendCompressedAsset(HttpExchange exchange, String key, long lastModified,
+                                              long length, String contentType, AssetLoader loader) throws IOException {
+        if (!isCompressible(contentType)) {
+            return false;
+        }
+        exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+        String encoding = negotiate(exchange);
+        if (encoding == null || length < MIN_SIZE) {
+            return false;
+        }
+
+        String cacheKey = key + "|" + encoding;
+        CachedAsset cached = ASSET_CACHE.get(cacheKey);
+        if (cached == null || cached.lastModified != lastModified || cached.length != length) {
+            cached = new CachedAsset(lastModified, length, compress(loader.load(), encoding));
+            ASSET_CACHE.put(cacheKey, cached);
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        headers.set("Content-Encoding", encoding);
+        exchange.sendResponseHeaders(200, cached.compressed.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(cached.compressed);
+        }
+        return true;
+    }
+
+    /**
+     * Compresses a body with a content coding.
+     *
+     * @param data     The bytes to compress.
+     * @param encoding {@code "gzip"} or {@code "deflate"}.
+     * @return The compressed bytes.
+     */
+    public static byte[] compress(byte[] data, String encoding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 3 + 64);
+        try (OutputStream out = wrap(buffer, encoding)) {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static OutputStream wrap(OutputStream out, String encoding) throws IOException {
+        return encoding.equals(GZIP) ? new GZIPOutputStream(out, 8192) : new DeflaterOutputStream(out);
+    }
+
+    /**
+     * Buffers the start of a response to decide between a small identity response and a
+     * compressed, chunked one.
+     */
+    private static final class ResponseStream extends OutputStream {
+        private final HttpExchange exchange;
+        private final int status;
+        private final String encoding;
+        private final byte[] buffer = new byte[MIN_SIZE];
+        private int count;
+        private OutputStream out;
+
+        ResponseStream(HttpExchange exchange, int status, String encoding) {
+            this.exchange = exchange;
+            this.status = status;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null) {
+                if (count + len <= buffer.length) {
+                    System.arraycopy(b, off, buffer, count, len);
+                    count += len;
+                    return;
+                }
+                commit();
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Flushing before the threshold is reached would force an uncompressed response
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(buffer, 0, count);
+                }
+                return;
+            }
+            out.close();
+        }
+
+        private void commit() throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            if (encoding != null) {
+                headers.set("Content-Encoding", encoding);
+                String etag = headers.getFirst("ETag");
+                if (etag != null) {
+                    headers.set("ETag", variantTag(etag, encoding));
+                }
+            }
+            exchange.sendResponseHeaders(status, 0);
+            out = exchange.getResponseBody();
+            if (encoding != null) {
+                out = wrap(out, encoding);
+            }
+            out.write(buffer, 0, count);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Index of store rows ordered by date, used to answer date-range queries with two binary
+ * searches instead of a full scan.
+ *
+ * <p>Rows with the same date keep their insertion order. Expenses usually arrive in date order, so
+ * an insert is normally an append into spare capacity. An out-of-order insert copies the index
+ * into new arrays instead of shifting in place, so a {@link View} taken earlier never changes.
+ *
+ * <p>A removed row stays in the index as a tombstone: the store's retired mark already tells every
+ * snapshot whether it still sees the row, so readers skip rows that are not current in their
+ * snapshot. Once tombstones make up a quarter of the index, it is compacted into new arrays, which
+ * keeps removal O(1) amortized.
+ */
+public class DateIndex {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final IntPredicate retired;
+  private int[] days = new int[INITIAL_CAPACITY];
+  private int[] rows = new int[INITIAL_CAPACITY];
+  private int length;
+  private int tombstones;
+  private View view = new View(days, rows, 0);
+
+  /**
+   * Creates an empty index.
+   *
+   * @param retired Tells whether a row has been deleted or replaced in the store, so compaction
+   *                can drop it.
+   */
+  public DateIndex(IntPredicate retired) {
+    this.retired = retired;
+  }
+
+  /**
+   * Adds a row to the index.
+   *
+   * @param day The epoch day of the row.
+   * @param row The row index in the store.
+   */
+  public void add(int day, int row) {
+    if (length == 0 || days[length - 1] <= day) {
+      if (length == days.length) {
+        days = Arrays.copyOf(days, length * 2);
+        rows = Arrays.copyOf(rows, length * 2);
+      }
+      // Slots past the length of existing views are never read by them
+      days[length] = day;
+      rows[length] = row;
+    } else if (tombstones > 0) {
+      // The index is copied anyway, so drop the tombstones on the way
+      compact(day, row);
+      return;
+    } else {
+      int position = view().upperBound(day);
+      int capacity = length == days.length ? length * 2 : days.length;
+      int[] newDays = new int[capacity];
+      int[] newRows = new int[capacity];
+      System.arraycopy(days, 0, newDays, 0, position);
+      System.arraycopy(rows, 0, newRows, 0, position);
+      newDays[position] = day;
+      newRows[position] = row;
+      System.arraycopy(days, position, newDays, position + 1, length - position);
+      System.arraycopy(rows, position, newRows, position + 1, length - position);
+      days = newDays;
+      rows = newRows;
+    }
+    length++;
+    view = null;
+  }
+
+  /**
+   * Adds a batch of rows to the index in one merge.
+   *
+   * <p>The batch must be ordered by day and, within a day, by row, and its rows must come after
+   * every row already in the index. A batch that starts on or after the last indexed day is
+   * appended; otherwise the index and the batch are merged into new arrays in a single pass.
+   *
+   * @param batchDays The epoch days of the rows.
+   * @param batchRows The row indexes in the store.
+   * @param count     The number of rows to add.
+   */
+  public void addAll(int[] batchDays, int[] batchRows, int count) {
+    if (count == 0) {
+      return;
+    }
+    int capacity = days.length;
+    while (capacity < length + count) {
+      capacity *= 2;
+    }
+    if (length == 0 || days[length - 1] <= batchDays[0]) {
+      if (capacity != days.length) {
+        days = Arrays.copyOf(days, capacity);
+        rows = Arrays.copyOf(rows, capacity);
+      }
+      System.arraycopy(batchDays, 0, days, length, count);
+      System.arraycopy(batchRows, 0, rows, length, count);
+    } else {
+      // Rows already indexed come first within a day, so only strictly earlier batch days jump ahead
+      int[] newDays = new int[capacity];
+      int[] newRows = new int[capacity];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i < length && j < count) {
+        if (batchDays[j] < days[i]) {
+          newDays[k] = batchDays[j];
+          newRows[k++] = batchRows[j++];
+        } else {
+          newDays[k] = days[i];
+          newRows[k++] = rows[i++];
+        }
+      }
+      System.arraycopy(days, i, newDays, k, length - i);
+      System.arraycopy(rows, i, newRows, k, length - i);
+      k += length - i;
+      System.arraycopy(batchDays, j, newDays, k, count - j);
+      System.arraycopy(batchRows, j, newRows, k, count - j);
+      days = newDays;
+      rows = newRows;
+    }
+    length += count;
+    view = null;
+  }
+
+  /**
+   * Records that one row of the index has been retired in the store. The row stays in the index as
+   * a tombstone until the next compaction.
+   */
+  public void remove() {
+    tombstones++;
+    if (tombstones > length / 4) {
+      compact(0, -1);
+    }
+  }
+
+  /**
+   * Copies the rows that are not retired into new arrays, so views taken earlier keep theirs, and
+   * inserts a row on the way unless {@code row} is negative.
+   */
+  private void compact(int day, int row) {
+    int capacity = INITIAL_CAPACITY;
+    while (capacity < length - tombstones + 1) {
+      capacity *= 2;
+    }
+    int[] newDays = new int[capacity];
+    int[] newRows = new int[capacity];
+    int k = 0;
+    boolean inserted = row < 0;
+    for (int i = 0; i < length; i++) {
+      if (!inserted && days[i] > day) {
+        newDays[k] = day;
+        newRows[k++] = row;
+        inserted = true;
+      }
+      if (!retired.test(rows[i])) {
+        newDays[k] = days[i];
+        newRows[k++] = rows[i];
+      }
+    }
+    if (!inserted) {
+      newDays[k] = day;
+      newRows[k++] = row;
+    }
+    days = newDays;
+    rows = newRows;
+    length = k;
+    tombstones = 0;
+    view = null;
+  }
+
+  /**
+   * Returns an immutable view of the index as it is now.
+   *
+   * @return The current view.
+   */
+  public View view() {
+    if (view == null) {
+      view = new View(days, rows, length);
+    }
+    return view;
+  }
+
+  /**
+   * Immutable view of a date index at one point in time. It may hold rows retired since, which the
+   * snapshot it belongs to may or may not still see.
+   */
+  public static final class View {
+
+    private final int[] days;
+    private final int[] rows;
+    private final int length;
+
+    private View(int[] days, int[] rows, int length) {
+      this.days = days;
+      this.rows = rows;
+      this.length = length;
+    }
+
+    /**
+     * Returns the number of positions, including tombstones.
+     *
+     * @return The number of positions.
+     */
+    public int size() {
+      return length;
+    }
+
+    public int day(int position) {
+      return days[position];
+    }
+
+    public int row(int position) {
+      return rows[position];
+    }
+
+    /**
+     * Returns the first position whose day is on or after the given day.
+     *
+     * @param day The epoch day.
+     * @return The position, or {@link #size()} if every row is earlier.
+     */
+    public int lowerBound(int day) {
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (days[mid] < day) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Returns the first position whose day is after the given day.
+     *
+     * @param day The epoch day.
+     * @return The position, or {@link #size()} if no row is later.
+     */
+    public int upperBound(int day) {
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (days[mid] <= day) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+/**
+ * Strong ETags built from data version counters, and conditional GET handling.
+ *
+ * <p>Version counters restart when the server restarts, so every ETag also carries an id of the
+ * server instance. An ETag from before a restart never matches, even if a counter happens to
+ * reach the same value again.
+ */
+public final class ETags {
+    private static final String INSTANCE = Long.toString(System.currentTimeMillis(), 36);
+
+    private ETags() {
+    }
+
+    /**
+     * Builds a strong ETag from a resource name and version.
+     *
+     * @param resource The resource, for example {@code "expenses"}.
+     * @param version  The version of the data the response is built from.
+     * @return The quoted ETag.
+     */
+    public static String of(String resource, long version) {
+        return "\"" + resource + "-" + INSTANCE + "-" + version + "\"";
+    }
+
+    /**
+     * Sets the ETag of a response and answers {@code 304 Not Modified} if the request's
+     * {@code If-None-Match} header already names it. Call before reading any data.
+     *
+     * @param exchange The exchange.
+     * @param etag     The current ETag of the resource.
+     * @return True if a 304 was sent and the handler is done.
+     */
+    public static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        exchange.getResponseHeaders().set("ETag", etag);
+        // Clients may reuse the response but must revalidate it first
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    /**
+     * Checks an {@code If-None-Match} value, a {@code *} or a list of ETags, with the weak
+     * comparison that RFC 9110 prescribes for it.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            // A compressed variant revalidates the same data
+            candidate = Compression.baseTag(candidate);
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -10,11 +10,20 @@ public class Expense {
   private final String category;
   private final double amount;
   private final String date;
+  private final int epochDay;
 
   public Expense(String category, double amount, String date) {
     this.category = category;
     this.amount = amount;
     this.date = date;
+    this.epochDay = ExpenseDates.toEpochDay(date);
+  }
+
+  public Expense(String category, double amount, int epochDay) {
+    this.category = category;
+    this.amount = amount;
+    this.date = ExpenseDates.toIsoString(epochDay);
+    this.epochDay = epochDay;
   }
 
   public String getCategory() {
@@ -29,6 +38,15 @@ public class Expense {
     return date;
   }
 
+  /**
+   * Returns the date parsed once at construction, as days since 1970-01-01.
+   *
+   * @return The epoch day, or {@link ExpenseDates#INVALID} if the date could not be parsed.
+   */
+  public int getEpochDay() {
+    return epochDay;
+  }
+
   /**
    * Loads a list of expenses from the specified file.
    *
@@ -57,15 +75,15 @@ public class Expense {
             try {
               double amount = Double.parseDouble(amountStr);
               expenses.add(new Expense(category, amount, date));
-              System.out.println("Loaded expense: " + category + " " + amount + " " + date);
+              Log.debug(() -> "Loaded expense: " + category + " " + amount + " " + date);
             } catch (NumberFormatException e) {
-              System.err.println("Invalid amount format in line: " + line);
+              Log.warn("Invalid amount format in line: " + line);
             }
           }
         }
       }
     } catch (Exception e) {
-      System.err.println("Unable to read expenses: " + e.getMessage());
+      Log.warn("Unable to read expenses: " + e.getMessage());
     }
     return expenses;
   }
@@ -77,7 +95,7 @@ public class Expense {
    * @param filePath The path to the file where expenses should be saved.
    */
   public static void saveExpensesToFile(List<Expense> expenses, String filePath) {
-    System.out.println("Saving " + expenses.size() + " expenses to file: " + filePath);
+    Log.info("Saving " + expenses.size() + " expenses to file: " + filePath);
     try {
       // Make sure the directory exists
       File file = new File(filePath);
@@ -90,32 +108,41 @@ public class Expense {
       try (FileWriter writer = new FileWriter(filePath)) {
         for (Expense expense : expenses) {
           // Ensure date is in YYYY-MM-DD format
-          String date = expense.getDate();
-
-          // Handle DD.MM.YYYY format
-          if (date.contains(".")) {
-            String[] parts = date.split("\\.");
-            if (parts.length == 3) {
-              date = parts[2] + "-" + parts[1] + "-" + parts[0];
-            }
-          }
-          // Handle MM/DD/YYYY format
-          else if (date.contains("/")) {
-            String[] parts = date.split("/");
-            if (parts.length == 3) {
-              date = parts[2] + "-" + parts[0] + "-" + parts[1];
-            }
-          }
+          String date = normalizeDate(expense.getDate());
           String line = expense.getCategory() + " " + expense.getAmount() + " " + date;
-          System.out.println("Writing expense: " + line);
+          Log.debug(() -> "Writing expense: " + line);
           writer.write(line + "\n");
         }
         writer.flush();
-        System.out.println("Expenses saved to " + filePath);
+        Log.info("Expenses saved to " + filePath);
       }
     } catch (IOException e) {
-      System.err.println("Error saving expenses: " + e.getMessage());
-      e.printStackTrace();
+      Log.error("Error saving expenses: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Converts a date in DD.MM.YYYY or MM/DD/YYYY format to YYYY-MM-DD. Other values are returned
+   * unchanged.
+   *
+   * @param date The date string to normalize.
+   * @return The date in YYYY-MM-DD format.
+   */
+  public static String normalizeDate(String date) {
+    // Handle DD.MM.YYYY format
+    if (date.contains(".")) {
+      String[] parts = date.split("\\.");
+      if (parts.length == 3) {
+        return parts[2] + "-" + parts[1] + "-" + parts[0];
+      }
     }
+    // Handle MM/DD/YYYY format
+    else if (date.contains("/")) {
+      String[] parts = date.split("/");
+      if (parts.length == 3) {
+        return parts[2] + "-" + parts[0] + "-" + parts[1];
+      }
+    }
+    return date;
   }
 }
@@ -0,0 +1,262 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Imports many expenses in one request on {@code POST /api/expenses/batch}.
+ *
+ * <p>The body is either NDJSON, one {@code {"category", "amount", "date"}} object per line, or
+ * CSV with the columns {@code category,amount,date} and an optional header row naming them in any
+ * order. The format follows the Content-Type ({@code application/x-ndjson} or {@code text/csv})
+ * and is otherwise guessed from the first line. Rows are validated as the body streams in; the
+ * valid ones are then committed together with one log append and one index update.
+ *
+ * <p>The response lists the outcome of every row by line number:
+ * {@code {"accepted": n, "rejected": n, "results": [{"line": 1, "status": "ok", "id": 42},
+ * {"line": 2, "status": "error", "error": "Missing date"}]}}.
+ */
+public class ExpenseBatchHandler implements HttpHandler {
+    public static final long MAX_BODY_BYTES = Long.getLong("server.batch.maxBodyBytes", 64L * 1024 * 1024);
+
+    private static final String[] CSV_COLUMNS = {"category", "amount", "date"};
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+        exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type,Authorization");
+
+        if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return;
+        }
+        if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+
+        Batch batch = new Batch();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                JsonReader.limitedBody(exchange, MAX_BODY_BYTES), StandardCharsets.UTF_8), 64 * 1024)) {
+            readRows(reader, exchange.getRequestHeaders().getFirst("Content-Type"), batch);
+        } catch (JsonReader.BodyTooLargeException e) {
+            sendError(exchange, 413, e.getMessage());
+            return;
+        }
+
+        int firstId;
+        try {
+            firstId = ExpenseRepository.getInstance().addAll(batch.expenses);
+        } catch (IOException e) {
+            Log.error("Error saving expense batch: " + e.getMessage(), e);
+            sendError(exchange, 500, "Failed to save expenses");
+            return;
+        }
+        Log.debug(() -> "Imported " + batch.expenses.size() + " expenses, rejected " + batch.rejected);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try (JsonWriter json = new JsonWriter(Compression.responseBody(exchange, 200))) {
+            json.beginObject();
+            json.name("accepted").value(batch.expenses.size());
+            json.name("rejected").value(batch.rejected);
+            json.name("results").beginArray();
+            int errorIndex = 0;
+            int id = firstId;
+            for (int i = 0; i < batch.rows; i++) {
+                json.beginObject();
+                json.name("line").value(batch.lines[i]);
+                if (batch.failed[i]) {
+                    json.name("status").value("error");
+                    json.name("error").value(batch.errors.get(errorIndex++));
+                } else {
+                    json.name("status").value("ok");
+                    json.name("id").value(id++);
+                }
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    /**
+     * Reads and validates every row of the body, collecting the valid expenses and the errors.
+     */
+    private void readRows(BufferedReader reader, String contentType, Batch batch) throws IOException {
+        Boolean csv = null;
+        if (contentType != null) {
+            String type = contentType.toLowerCase();
+            if (type.contains("csv")) {
+                csv = true;
+            } else if (type.contains("json")) {
+                csv = false;
+            }
+        }
+        int[] columns = null;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (csv == null) {
+                csv = !line.stripLeading().startsWith("{");
+            }
+            try {
+                Expense expense;
+                if (csv) {
+                    List<String> fields = splitCsv(line);
+                    if (columns == null) {
+                        columns = headerColumns(fields);
+                        if (columns != null) {
+                            continue;
+                        }
+                        columns = new int[] {0, 1, 2};
+                    }
+                    expense = parseCsv(fields, columns);
+                } else {
+                    expense = parseJson(line);
+                }
+                if (expense.getEpochDay() == ExpenseDates.INVALID) {
+                    throw new IllegalArgumentException("Invalid date: " + expense.getDate());
+                }
+                batch.accept(lineNumber, expense);
+            } catch (IllegalArgumentException e) {
+                batch.reject(lineNumber, e.getMessage());
+            }
+        }
+    }
+
+    private static Expense parseJson(String line) throws IOException {
+        JsonReader reader = new JsonReader(line);
+        ExpenseRequest request = ExpenseRequest.read(reader);
+        reader.endDocument();
+        return request.toExpense();
+    }
+
+    private static Expense parseCsv(List<String> fields, int[] columns) {
+        for (int column : columns) {
+            if (column >= fields.size()) {
+                throw new IllegalArgumentException("Expected " + CSV_COLUMNS.length + " columns, found " + fields.size());
+            }
+        }
+        String amount = fields.get(columns[1]).trim();
+        double value;
+        try {
+            value = amount.isEmpty() ? Double.NaN : Double.parseDouble(amount);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid amount: " + amount);
+        }
+        return new ExpenseRequest(fields.get(columns[0]).trim(), value, fields.get(columns[2]).trim()).toExpense();
+    }
+
+    /**
+     * Returns the position of each of {@link #CSV_COLUMNS} if the row is a header, otherwise null.
+     */
+    private static int[] headerColumns(List<String> fields) {
+        int[] columns = new int[CSV_COLUMNS.length];
+        for (int i = 0; i < CSV_COLUMNS.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < fields.size(); j++) {
+                if (fields.get(j).trim().equalsIgnoreCase(CSV_COLUMNS[i])) {
+                    columns[i] = j;
+                }
+            }
+        }
+        for (int column : columns) {
+            if (column < 0) {
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Splits one CSV record. Fields may be quoted, with {@code ""} standing for a quote inside a
+     * quoted field.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(CSV_COLUMNS.length);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] error = ("{\"error\":" + JsonWriter.quote(message) + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, error.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(error);
+        }
+    }
+
+    /**
+     * Rows of one request: the valid expenses, plus the line number and outcome of every row.
+     */
+    private static final class Batch {
+        final List<Expense> expenses = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        int[] lines = new int[256];
+        boolean[] failed = new boolean[256];
+        int rows;
+        int rejected;
+
+        void accept(int line, Expense expense) {
+            expenses.add(expense);
+            record(line, false);
+        }
+
+        void reject(int line, String error) {
+            errors.add(error);
+            rejected++;
+            record(line, true);
+        }
+
+        private void record(int line, boolean error) {
+            if (rows == lines.length) {
+                lines = Arrays.copyOf(lines, rows * 2);
+                failed = Arrays.copyOf(failed, rows * 2);
+            }
+            lines[rows] = line;
+            failed[rows++] = error;
+        }
+    }
+}
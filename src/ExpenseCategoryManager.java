@@ -10,6 +10,7 @@ public class ExpenseCategoryManager {
 
   private static final String CATEGORIES_FILE_PATH = "res/categories.txt";
   private final List<String> categories;
+  private volatile long version;
 
   public ExpenseCategoryManager() {
     categories = new ArrayList<>();
@@ -20,40 +21,52 @@ public class ExpenseCategoryManager {
    * Adds a new expense category.
    *
    * @param category The name of the category to add.
+   * @return False if the name is blank or the category already exists.
    */
-  public void addCategory(String category) {
-    if (category != null && !category.trim().isEmpty()) {
-      if (!categories.contains(category)) {
-        categories.add(category);
-        updateCategories();
-        System.out.println("Category successfully added: " + category);
-      } else {
-        System.out.println("Category already exists: " + category);
-      }
-    } else {
-      System.out.println("Invalid category name.");
+  public synchronized boolean addCategory(String category) {
+    if (category == null || category.trim().isEmpty() || categories.contains(category)) {
+      return false;
     }
+    categories.add(category);
+    version++;
+    updateCategories();
+    ExpenseRepository.getInstance().getStore().categoryChanged(category, true);
+    return true;
   }
 
   /**
    * Removes an expense category.
    *
    * @param category The name of the category to remove.
+   * @return False if the category does not exist.
    */
-  public void removeCategory(String category) {
-    if (category != null && !category.isEmpty()) {
-      if (categories.remove(category)) {
-        updateCategories();
-        System.out.println("Category successfully removed: " + category);
-      } else {
-        System.out.println("Category not found: " + category);
-      }
-    } else {
-      System.out.println("Invalid category name.");
+  public synchronized boolean removeCategory(String category) {
+    if (category == null || !categories.remove(category)) {
+      return false;
     }
+    version++;
+    updateCategories();
+    ExpenseRepository.getInstance().getStore().categoryChanged(category, false);
+    return true;
   }
-  public List<String> getCategories() {
-    return categories;
+
+  /**
+   * Returns a copy of the categories, safe to iterate while other threads add or remove
+   * categories.
+   *
+   * @return The category names, in the order they were added.
+   */
+  public synchronized List<String> getCategories() {
+    return List.copyOf(categories);
+  }
+
+  /**
+   * Returns the version of the category list. Every change to the list increases it.
+   *
+   * @return The version.
+   */
+  public long getVersion() {
+    return version;
   }
 
   /**
@@ -97,7 +110,13 @@ public class ExpenseCategoryManager {
   private void addCategoryFromInput(Scanner scanner) {
     System.out.println("Enter new category name:");
     String newCategory = scanner.nextLine();
-    addCategory(newCategory);
+    if (newCategory.trim().isEmpty()) {
+      System.out.println("Invalid category name.");
+    } else if (addCategory(newCategory)) {
+      System.out.println("Category successfully added: " + newCategory);
+    } else {
+      System.out.println("Category already exists: " + newCategory);
+    }
   }
 
   /**
@@ -108,7 +127,13 @@ public class ExpenseCategoryManager {
   private void removeCategoryFromInput(Scanner scanner) {
     System.out.println("Enter category name to remove:");
     String categoryToRemove = scanner.nextLine();
-    removeCategory(categoryToRemove);
+    if (categoryToRemove.isEmpty()) {
+      System.out.println("Invalid category name.");
+    } else if (removeCategory(categoryToRemove)) {
+      System.out.println("Category successfully removed: " + categoryToRemove);
+    } else {
+      System.out.println("Category not found: " + categoryToRemove);
+    }
   }
 
   public void updateCategories() {
@@ -117,7 +142,7 @@ public class ExpenseCategoryManager {
         categoriesWriter.write(category + "\n");
       }
     } catch (IOException e) {
-      System.err.println("Error writing categories to file: " + e.getMessage());
+      Log.warn("Error writing categories to file: " + e.getMessage());
     }
   }
 
@@ -130,7 +155,7 @@ public class ExpenseCategoryManager {
         }
       }
     } catch (FileNotFoundException e) {
-      System.err.println("Категории не найдены. Создаем новый файл: " + e.getMessage());
+      Log.warn("Категории не найдены. Создаем новый файл: " + e.getMessage());
       // Создаем директорию, если она не существует
       File file = new File(CATEGORIES_FILE_PATH);
       File parent = file.getParentFile();
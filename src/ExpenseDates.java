@@ -0,0 +1,158 @@
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Conversions between the date strings accepted by the application and epoch days (days since
+ * 1970-01-01), which is how dates are stored and compared in memory.
+ */
+public final class ExpenseDates {
+
+  /** Returned by {@link #toEpochDay(String)} when a date cannot be parsed. */
+  public static final int INVALID = Integer.MIN_VALUE;
+
+  private ExpenseDates() {
+  }
+
+  /**
+   * Parses a date in YYYY-MM-DD, DD.MM.YYYY or MM/DD/YYYY format without regular expressions or
+   * date format objects.
+   *
+   * @param date The date string to parse.
+   * @return The epoch day, or {@link #INVALID} if the date is malformed or does not exist.
+   */
+  public static int toEpochDay(String date) {
+    if (date == null) {
+      return INVALID;
+    }
+    date = date.trim();
+    int length = date.length();
+    int first = -1;
+    int second = -1;
+    char separator = 0;
+    for (int i = 0; i < length; i++) {
+      char c = date.charAt(i);
+      if (c >= '0' && c <= '9') {
+        continue;
+      }
+      if (separator == 0 && (c == '-' || c == '.' || c == '/')) {
+        separator = c;
+      }
+      if (c != separator) {
+        return INVALID;
+      }
+      if (first < 0) {
+        first = i;
+      } else if (second < 0) {
+        second = i;
+      } else {
+        return INVALID;
+      }
+    }
+    if (second < 0) {
+      return INVALID;
+    }
+
+    int a = parseDigits(date, 0, first);
+    int b = parseDigits(date, first + 1, second);
+    int c = parseDigits(date, second + 1, length);
+    if (a < 0 || b < 0 || c < 0) {
+      return INVALID;
+    }
+
+    switch (separator) {
+      case '-':
+        // YYYY-MM-DD
+        return first == 4 ? of(a, b, c) : INVALID;
+      case '.':
+        // DD.MM.YYYY
+        return length - second - 1 == 4 ? of(c, b, a) : INVALID;
+      default:
+        // MM/DD/YYYY
+        return length - second - 1 == 4 ? of(c, a, b) : INVALID;
+    }
+  }
+
+  /**
+   * Formats an epoch day as YYYY-MM-DD.
+   *
+   * @param epochDay The epoch day.
+   * @return The ISO date string.
+   */
+  public static String toIsoString(int epochDay) {
+    return LocalDate.ofEpochDay(epochDay).toString();
+  }
+
+  /**
+   * Returns the epoch day of the first day of the given month.
+   *
+   * @param year  The year.
+   * @param month The month, 1 to 12.
+   * @return The epoch day.
+   */
+  public static int firstDayOfMonth(int year, int month) {
+    return (int) LocalDate.of(year, month, 1).toEpochDay();
+  }
+
+  /**
+   * Returns the epoch day of the last day of the given month.
+   *
+   * @param year  The year.
+   * @param month The month, 1 to 12.
+   * @return The epoch day.
+   */
+  public static int lastDayOfMonth(int year, int month) {
+    LocalDate first = LocalDate.of(year, month, 1);
+    return (int) first.toEpochDay() + first.lengthOfMonth() - 1;
+  }
+
+  /**
+   * Returns the month an epoch day falls in, numbered {@code year * 12 + month - 1} so that
+   * consecutive months have consecutive numbers.
+   *
+   * @param epochDay The epoch day.
+   * @return The month number.
+   */
+  public static int monthOf(int epochDay) {
+    LocalDate date = LocalDate.ofEpochDay(epochDay);
+    return date.getYear() * 12 + date.getMonthValue() - 1;
+  }
+
+  /**
+   * Returns the epoch day of the first day of a month number from {@link #monthOf(int)}.
+   *
+   * @param month The month number.
+   * @return The epoch day.
+   */
+  public static int firstDayOfMonth(int month) {
+    return firstDayOfMonth(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1);
+  }
+
+  /**
+   * Returns the epoch day of the last day of a month number from {@link #monthOf(int)}.
+   *
+   * @param month The month number.
+   * @return The epoch day.
+   */
+  public static int lastDayOfMonth(int month) {
+    return lastDayOfMonth(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1);
+  }
+
+  private static int of(int year, int month, int day) {
+    try {
+      return (int) LocalDate.of(year, month, day).toEpochDay();
+    } catch (DateTimeException e) {
+      return INVALID;
+    }
+  }
+
+  private static int parseDigits(String s, int from, int to) {
+    if (to <= from || to - from > 4) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = from; i < to; i++) {
+      value = value * 10 + (s.charAt(i) - '0');
+    }
+    return value;
+  }
+}
@@ -0,0 +1,424 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events stream of committed changes on {@code GET /api/stream}.
+ *
+ * <p>After every published change a single dispatcher thread reads the new entries of the
+ * {@link ChangeJournal}, encodes them once and queues the same bytes for every client:
+ * <ul>
+ *   <li>{@code event: changes} with {@code {"version": v, "changes": [...]}}, in the format of
+ *       {@code GET /api/expenses?sinceVersion=N}</li>
+ *   <li>{@code event: totals} with the recomputed totals of every month touched by the changes,
+ *       {@code {"version": v, "months": [{"month": "2024-02", "total": n, "categories": {...}}]}}</li>
+ *   <li>{@code event: resync} when a client missed too much and should reload everything</li>
+ * </ul>
+ * Each event id is the version, so a reconnecting browser resumes from its {@code Last-Event-ID}.
+ *
+ * <p>The request handler returns right after the headers are sent, so open connections do not hold
+ * executor threads. A small shared pool writes the queued events. Each client's queue is bounded;
+ * a client whose queue overflows, or whose socket write blocks past the write timeout, is
+ * disconnected instead of slowing down the others.
+ */
+public class ExpenseEventStream implements HttpHandler {
+    private static final int BUFFER_EVENTS = Integer.getInteger("server.sse.bufferEvents", 64);
+    private static final int WRITER_THREADS = Integer.getInteger("server.sse.writerThreads", 2);
+    private static final long HEARTBEAT_SECONDS = Long.getLong("server.sse.heartbeatSeconds", 15);
+    private static final long WRITE_TIMEOUT_MILLIS = Long.getLong("server.sse.writeTimeoutMillis", 10000);
+    // Larger bursts, such as a big batch import, are sent as a resync instead of one huge event
+    private static final int MAX_EVENT_CHANGES = Integer.getInteger("server.sse.maxEventChanges", 1000);
+
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ExpenseStore store;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService dispatcher;
+    private final ExecutorService writers;
+    private final AtomicBoolean dispatchPending = new AtomicBoolean();
+    private final AtomicLong evicted = new AtomicLong();
+    private long lastVersion;
+
+    private ExpenseEventStream(ExpenseStore store) {
+        this.store = store;
+        this.lastVersion = store.snapshot().version();
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(daemonThreads("sse-dispatcher"));
+        this.writers = Executors.newFixedThreadPool(WRITER_THREADS, daemonThreads("sse-writer"));
+    }
+
+    /**
+     * Creates a stream of the changes of a store and starts listening to it.
+     *
+     * @param store The store.
+     * @return The stream.
+     */
+    public static ExpenseEventStream open(ExpenseStore store) {
+        ExpenseEventStream stream = new ExpenseEventStream(store);
+        store.addChangeListener(stream::changed);
+        stream.dispatcher.scheduleWithFixedDelay(stream::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS,
+                TimeUnit.SECONDS);
+        stream.dispatcher.scheduleWithFixedDelay(stream::checkWrites, 1, 1, TimeUnit.SECONDS);
+        return stream;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.getResponseHeaders().set("X-Accel-Buffering", "no");
+        exchange.sendResponseHeaders(200, 0);
+
+        // Register on the dispatcher thread, so no broadcast can fall between the client's first
+        // event and its registration
+        Client client = new Client(exchange);
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        try {
+            dispatcher.execute(() -> register(client, lastEventId));
+        } catch (RejectedExecutionException e) {
+            exchange.close();
+        }
+    }
+
+    private void register(Client client, String lastEventId) {
+        // Start at the last broadcast version; later changes reach the client with the next dispatch
+        ExpenseSnapshot snapshot = store.snapshot();
+        long version = Math.min(lastVersion, snapshot.version());
+        byte[] first = event("hello", version, "{\"version\":" + version + "}");
+        if (lastEventId != null) {
+            try {
+                List<ChangeJournal.Change> missed = store.changesSince(Long.parseLong(lastEventId.trim()), snapshot);
+                if (missed == null) {
+                    first = resyncEvent(version);
+                } else {
+                    missed.removeIf(change -> change.version() > version);
+                    first = changesEvent(snapshot, version, missed);
+                }
+            } catch (NumberFormatException e) {
+                first = resyncEvent(version);
+            } catch (IOException e) {
+                Log.error("Error encoding stream event: " + e.getMessage(), e);
+                remove(client);
+                return;
+            }
+        }
+        client.offer("retry: 3000\n".getBytes(StandardCharsets.UTF_8));
+        client.offer(first);
+        clients.add(client);
+        Log.debug(() -> "Event stream client connected, " + clients.size() + " open");
+    }
+
+    /**
+     * Returns the number of connected clients.
+     *
+     * @return The number of clients.
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Returns how many clients were disconnected for falling behind.
+     *
+     * @return The number of evicted clients.
+     */
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    /**
+     * Disconnects every client and stops the stream threads.
+     */
+    public void close() {
+        dispatcher.shutdownNow();
+        for (Client client : clients) {
+            remove(client);
+        }
+        writers.shutdownNow();
+    }
+
+    /**
+     * Called by the store after every change. Schedules one dispatch; changes that arrive before it
+     * runs are sent together.
+     */
+    private void changed() {
+        if (dispatchPending.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(this::dispatch);
+            } catch (RejectedExecutionException e) {
+                // The stream is closed
+            }
+        }
+    }
+
+    private void dispatch() {
+        dispatchPending.set(false);
+        if (clients.isEmpty()) {
+            lastVersion = store.snapshot().version();
+            return;
+        }
+        ExpenseSnapshot snapshot = store.snapshot();
+        if (snapshot.version() <= lastVersion) {
+            return;
+        }
+        List<ChangeJournal.Change> changes = store.changesSince(lastVersion, snapshot);
+        lastVersion = snapshot.version();
+        try {
+            byte[] event = changesEvent(snapshot, snapshot.version(), changes);
+            if (changes != null && changes.size() <= MAX_EVENT_CHANGES) {
+                event = concat(event, totalsEvent(snapshot, changes));
+            }
+            broadcast(event);
+        } catch (IOException e) {
+            Log.error("Error encoding stream event: " + e.getMessage(), e);
+        }
+    }
+
+    private void heartbeat() {
+        broadcast(HEARTBEAT);
+    }
+
+    private void checkWrites() {
+        long now = System.currentTimeMillis();
+        for (Client client : clients) {
+            client.checkWrite(now);
+        }
+    }
+
+    private void broadcast(byte[] event) {
+        for (Client client : clients) {
+            client.offer(event);
+        }
+    }
+
+    /**
+     * Encodes changes as a {@code changes} event, or a {@code resync} event if they are missing or
+     * too many. The event id is the version the changes bring the client to, which may be older
+     * than the snapshot the rows are read from.
+     */
+    private byte[] changesEvent(ExpenseSnapshot snapshot, long version, List<ChangeJournal.Change> changes)
+            throws IOException {
+        if (changes == null || changes.size() > MAX_EVENT_CHANGES) {
+            return resyncEvent(version);
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(data)) {
+            json.beginObject();
+            json.name("version").value(version);
+            ExpenseJson.writeChanges(json, snapshot, changes, ExpenseQuery.ALL_FIELDS);
+            json.endObject();
+        }
+        return event("changes", version, data.toString(StandardCharsets.UTF_8));
+    }
+
+    private byte[] resyncEvent(long version) {
+        return event("resync", version, "{\"version\":" + version + "}");
+    }
+
+    /**
+     * Encodes the totals, overall and per category, of every month an added, updated or deleted
+     * expense falls in. Totals are read from the store's rollup cells, without visiting rows.
+     */
+    private byte[] totalsEvent(ExpenseSnapshot snapshot, List<ChangeJournal.Change> changes) throws IOException {
+        Set<Integer> months = new TreeSet<>();
+        for (ChangeJournal.Change change : changes) {
+            if (change.row() >= 0) {
+                months.add(ExpenseDates.monthOf(snapshot.epochDay(change.row())));
+            }
+            if (change.oldRow() >= 0) {
+                months.add(ExpenseDates.monthOf(snapshot.epochDay(change.oldRow())));
+            }
+        }
+        if (months.isEmpty()) {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(data)) {
+            json.beginObject();
+            json.name("version").value(snapshot.version());
+            json.name("months").beginArray();
+            List<String> categoryNames = snapshot.getCategoryNames();
+            for (int month : months) {
+                json.beginObject();
+                json.name("month").value(String.format("%04d-%02d", month / 12, month % 12 + 1));
+                json.name("total").value(ExpenseStore.fromCents(store.rollup(month, month, -1).sumCents()));
+                json.name("categories").beginObject();
+                for (int id = 0; id < categoryNames.size(); id++) {
+                    RollupCube.Cell cell = store.rollup(month, month, id);
+                    if (cell.count() > 0) {
+                        json.name(categoryNames.get(id)).value(ExpenseStore.fromCents(cell.sumCents()));
+                    }
+                }
+                json.endObject();
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+        return event("totals", snapshot.version(), data.toString(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] event(String name, long version, String data) {
+        return ("id: " + version + "\nevent: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private void remove(Client client) {
+        client.closed.set(true);
+        // Closing writes the last chunk, so it stays registered for the write timeout until then
+        client.beginWrite();
+        try {
+            client.exchange.close();
+        } finally {
+            client.endWrite();
+        }
+        if (clients.remove(client)) {
+            Log.debug(() -> "Event stream client disconnected, " + clients.size() + " open");
+        }
+    }
+
+    /**
+     * One connected client: a bounded queue of encoded events, drained by the writer pool.
+     *
+     * <p>Socket writes block, so a client that stops reading would hold a writer thread. Its write
+     * is interrupted when its queue overflows or the write times out, which closes the connection.
+     */
+    private final class Client {
+        final HttpExchange exchange;
+        final OutputStream out;
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(BUFFER_EVENTS);
+        final AtomicBoolean draining = new AtomicBoolean();
+        final AtomicBoolean closed = new AtomicBoolean();
+        // The thread writing to this client, if any, and when its current write started
+        private Thread writer;
+        private long writeStarted;
+
+        Client(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+
+        void offer(byte[] event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                evict("fell " + BUFFER_EVENTS + " events behind");
+                return;
+            }
+            if (draining.compareAndSet(false, true)) {
+                writers.execute(this::drain);
+            }
+        }
+
+        void evict(String reason) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            evicted.incrementAndGet();
+            Log.warn("Disconnecting slow event stream client " + exchange.getRemoteAddress() + ": " + reason);
+            queue.clear();
+            synchronized (this) {
+                if (writer != null) {
+                    // The drain fails and removes the client
+                    writer.interrupt();
+                    return;
+                }
+            }
+            writers.execute(() -> remove(this));
+        }
+
+        /**
+         * Interrupts a write that has been blocked for longer than the write timeout.
+         */
+        synchronized void checkWrite(long now) {
+            if (writer != null && now - writeStarted > WRITE_TIMEOUT_MILLIS) {
+                if (closed.compareAndSet(false, true)) {
+                    evicted.incrementAndGet();
+                    Log.warn("Disconnecting slow event stream client " + exchange.getRemoteAddress()
+                            + ": write timed out");
+                }
+                writer.interrupt();
+            }
+        }
+
+        void drain() {
+            try {
+                byte[] event;
+                while (!closed.get() && (event = queue.poll()) != null) {
+                    beginWrite();
+                    out.write(event);
+                }
+                if (!closed.get()) {
+                    beginWrite();
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // The client went away, or the write was interrupted
+                closed.set(true);
+            } finally {
+                endWrite();
+                draining.set(false);
+            }
+            if (closed.get()) {
+                queue.clear();
+                remove(this);
+            } else if (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+                writers.execute(this::drain);
+            }
+        }
+
+        synchronized void beginWrite() {
+            writer = Thread.currentThread();
+            writeStarted = System.currentTimeMillis();
+        }
+
+        synchronized void endWrite() {
+            writer = null;
+            // Do not leak an interrupt meant for this client into the next task of the pool
+            Thread.interrupted();
+        }
+    }
+}
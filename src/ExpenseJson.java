@@ -0,0 +1,187 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams expenses from a snapshot as JSON responses.
+ */
+public final class ExpenseJson {
+    /** Response header carrying the version of the ledger a response was read from. */
+    public static final String VERSION_HEADER = "X-Expenses-Version";
+
+    private ExpenseJson() {
+    }
+
+    /**
+     * Sends the expenses selected by a query: a page object if a page was requested, otherwise a
+     * JSON array of every expense in insertion order. The response is encoded, and compressed if
+     * the client accepts it, straight from the store without building it in memory first.
+     *
+     * @param exchange The exchange to respond to.
+     * @param snapshot The snapshot to read.
+     * @param query    The paging and projection parameters.
+     */
+    public static void send(HttpExchange exchange, ExpenseSnapshot snapshot, ExpenseQuery query) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set(VERSION_HEADER, String.valueOf(snapshot.version()));
+        try (JsonWriter json = new JsonWriter(Compression.responseBody(exchange, 200))) {
+            if (query.isPaged()) {
+                writePage(json, snapshot, query);
+            } else {
+                json.beginArray();
+                int rowCount = snapshot.rowCount();
+                for (int row = 0; row < rowCount; row++) {
+                    if (snapshot.isCurrent(row)) {
+                        writeExpense(json, snapshot, row, query.getFields());
+                    }
+                }
+                json.endArray();
+            }
+        }
+    }
+
+    /**
+     * Sends the changes made after the version a client holds:
+     * {@code {"version": v, "changes": [...]}}, where each change is
+     * {@code {"version": v, "op": "upsert", "expense": {...}}}, {@code {"version": v, "op": "delete",
+     * "id": n}} or {@code {"version": v, "op": "categoryAdd" / "categoryRemove", "category": ...}}.
+     * Only the last change of each expense is sent. If the journal no longer reaches back to that
+     * version the response is {@code {"version": v, "resync": true}} and the client should fetch
+     * the whole ledger again.
+     *
+     * @param exchange The exchange to respond to.
+     * @param store    The store to read the changes from.
+     * @param snapshot The snapshot the response describes, the one its ETag was computed from.
+     * @param query    The query holding the version and the fields to send.
+     */
+    public static void sendChanges(HttpExchange exchange, ExpenseStore store, ExpenseSnapshot snapshot,
+            ExpenseQuery query) throws IOException {
+        List<ChangeJournal.Change> changes = store.changesSince(query.getSinceVersion(), snapshot);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set(VERSION_HEADER, String.valueOf(snapshot.version()));
+        try (JsonWriter json = new JsonWriter(Compression.responseBody(exchange, 200))) {
+            json.beginObject();
+            json.name("version").value(snapshot.version());
+            if (changes == null) {
+                json.name("resync").value(true);
+                json.endObject();
+                return;
+            }
+
+            writeChanges(json, snapshot, changes, query.getFields());
+            json.endObject();
+        }
+    }
+
+    /**
+     * Writes changes as the {@code "changes"} member of the current object. Only the last change
+     * of each expense is written.
+     *
+     * @param json     The writer.
+     * @param snapshot A snapshot at or after the version of the last change.
+     * @param changes  The changes, oldest first.
+     * @param fields   A mask of {@code ExpenseQuery.FIELD_*} values for changed expenses.
+     */
+    public static void writeChanges(JsonWriter json, ExpenseSnapshot snapshot, List<ChangeJournal.Change> changes,
+            int fields) throws IOException {
+        // An expense changed several times only needs its last change
+        Map<Integer, Integer> lastChange = new HashMap<>();
+        for (int i = 0; i < changes.size(); i++) {
+            if (changes.get(i).id() > 0) {
+                lastChange.put(changes.get(i).id(), i);
+            }
+        }
+        json.name("changes").beginArray();
+        for (int i = 0; i < changes.size(); i++) {
+            ChangeJournal.Change change = changes.get(i);
+            if (change.id() > 0 && lastChange.get(change.id()) != i) {
+                continue;
+            }
+            json.beginObject();
+            json.name("version").value(change.version());
+            switch (change.kind()) {
+                case ADD, UPDATE -> {
+                    json.name("op").value("upsert");
+                    json.name("expense");
+                    writeExpense(json, snapshot, change.row(), fields | ExpenseQuery.FIELD_ID);
+                }
+                case DELETE -> json.name("op").value("delete").name("id").value(change.id());
+                case CATEGORY_ADD -> json.name("op").value("categoryAdd").name("category").value(change.category());
+                case CATEGORY_REMOVE -> json.name("op").value("categoryRemove").name("category").value(change.category());
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Writes one page as {@code {"items": [...], "nextCursor": ..., "total": n}}. Costs a binary
+     * search plus the rows of the page and any tombstones between them, whatever the size of the
+     * ledger.
+     */
+    private static void writePage(JsonWriter json, ExpenseSnapshot snapshot, ExpenseQuery query) throws IOException {
+        ExpenseSnapshot.SortOrder sort = query.getSort();
+        int positions = snapshot.positions(sort);
+        int start = query.hasCursor()
+                ? snapshot.positionAfter(sort, query.getCursorKey(), query.getCursorRow())
+                : 0;
+
+        json.beginObject();
+        json.name("items").beginArray();
+        int lastRow = -1;
+        int written = 0;
+        int position = snapshot.nextCurrent(sort, start);
+        while (position < positions && written < query.getLimit()) {
+            lastRow = snapshot.rowAt(sort, position);
+            writeExpense(json, snapshot, lastRow, query.getFields());
+            written++;
+            position = snapshot.nextCurrent(sort, position + 1);
+        }
+        json.endArray();
+        json.name("nextCursor").value(position < positions && lastRow >= 0
+                ? ExpenseQuery.encodeCursor(sort, snapshot.sortKey(sort, lastRow), lastRow)
+                : null);
+        json.name("total").value(snapshot.size());
+        json.endObject();
+    }
+
+    /**
+     * Writes one expense as a {@code {"id", "category", "amount", "date"}} object.
+     *
+     * @param json     The writer.
+     * @param snapshot The snapshot holding the row.
+     * @param row      The row index.
+     */
+    public static void writeExpense(JsonWriter json, ExpenseSnapshot snapshot, int row) throws IOException {
+        writeExpense(json, snapshot, row, ExpenseQuery.ALL_FIELDS);
+    }
+
+    /**
+     * Writes the selected fields of one expense as an object.
+     *
+     * @param json     The writer.
+     * @param snapshot The snapshot holding the row.
+     * @param row      The row index.
+     * @param fields   A mask of {@code ExpenseQuery.FIELD_*} values.
+     */
+    public static void writeExpense(JsonWriter json, ExpenseSnapshot snapshot, int row, int fields) throws IOException {
+        json.beginObject();
+        if ((fields & ExpenseQuery.FIELD_ID) != 0) {
+            json.name("id").value(snapshot.id(row));
+        }
+        if ((fields & ExpenseQuery.FIELD_CATEGORY) != 0) {
+            json.name("category").value(snapshot.categoryName(snapshot.categoryId(row)));
+        }
+        if ((fields & ExpenseQuery.FIELD_AMOUNT) != 0) {
+            json.name("amount").value(ExpenseStore.fromCents(snapshot.amountCents(row)));
+        }
+        if ((fields & ExpenseQuery.FIELD_DATE) != 0) {
+            json.name("date").value(ExpenseDates.toIsoString(snapshot.epochDay(row)));
+        }
+        json.endObject();
+    }
+}
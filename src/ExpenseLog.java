@@ -0,0 +1,442 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only write-ahead log of expense records.
+ *
+ * <p>Every insert is written as a single line at the end of the log, so the cost of an insert no
+ * longer depends on the size of the ledger. On startup the log is replayed to rebuild the
+ * in-memory expenses. The plain text file ({@code res/expenses.txt}) is only used to seed a new
+ * log and as an optional export.
+ *
+ * <p>Record formats:
+ * <ul>
+ *   <li>{@code ADD<TAB>yyyy-MM-dd<TAB>amount<TAB>category} adds an expense. Its id is the position
+ *   of the record among all ADD records, starting at 1.</li>
+ *   <li>{@code UPD<TAB>id<TAB>yyyy-MM-dd<TAB>amount<TAB>category} replaces an expense.</li>
+ *   <li>{@code DEL<TAB>id} deletes an expense.</li>
+ * </ul>
+ * Backslashes, tabs and line breaks in a category are escaped as {@code \\}, {@code \t},
+ * {@code \n} and {@code \r}, so every record stays on one line. Updates and deletes are appended
+ * like inserts, so the file is never rewritten.
+ */
+public class ExpenseLog implements Closeable {
+
+  public static final String DEFAULT_LOG_PATH = "res/expenses.log";
+
+  private static final String FSYNC_PROPERTY = "expenses.log.fsync";
+  private static final String FSYNC_INTERVAL_PROPERTY = "expenses.log.fsyncIntervalMs";
+  private static final long DEFAULT_FSYNC_INTERVAL_MS = 200;
+  private static final String RECORD_ADD = "ADD";
+  private static final String RECORD_UPDATE = "UPD";
+  private static final String RECORD_DELETE = "DEL";
+
+  /**
+   * Receives the records of the log from {@link #replay(Replayer)}.
+   */
+  public interface Replayer {
+    void add(Expense expense);
+
+    void update(int id, Expense expense);
+
+    void delete(int id);
+
+    /**
+     * Called for an ADD record that cannot be read. The record still takes its id, so the ids of
+     * later expenses do not shift.
+     */
+    void skip();
+  }
+
+  /**
+   * When appended records are forced to disk.
+   */
+  public enum FsyncPolicy {
+    /** Force after every record; an acknowledged insert is always durable. */
+    PER_RECORD,
+    /** Concurrent writers share one force; an acknowledged insert is always durable. */
+    GROUP_COMMIT,
+    /** Force on a timer; up to one interval of inserts may be lost on a crash. */
+    INTERVAL;
+
+    static FsyncPolicy fromString(String value) {
+      if (value == null || value.isEmpty()) {
+        return GROUP_COMMIT;
+      }
+      switch (value.trim().toLowerCase()) {
+        case "record":
+        case "per-record":
+          return PER_RECORD;
+        case "interval":
+          return INTERVAL;
+        case "group":
+        case "group-commit":
+          return GROUP_COMMIT;
+        default:
+          Log.warn("Unknown fsync policy '" + value + "', using group-commit");
+          return GROUP_COMMIT;
+      }
+    }
+  }
+
+  private final Path path;
+  private final FsyncPolicy policy;
+  private final FileChannel channel;
+  private final Object syncLock = new Object();
+  private final ScheduledExecutorService syncTimer;
+  private long writtenSequence;
+  private volatile long syncedSequence;
+
+  public ExpenseLog(String filePath, FsyncPolicy policy, long intervalMillis) throws IOException {
+    this.path = Paths.get(filePath);
+    this.policy = policy;
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    trimTornTail();
+    channel.position(channel.size());
+
+    if (policy == FsyncPolicy.INTERVAL) {
+      syncTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "expense-log-sync");
+        thread.setDaemon(true);
+        return thread;
+      });
+      syncTimer.scheduleWithFixedDelay(this::syncQuietly, intervalMillis, intervalMillis,
+          TimeUnit.MILLISECONDS);
+    } else {
+      syncTimer = null;
+    }
+  }
+
+  /**
+   * Opens the log at the given path, reading the fsync policy from the
+   * {@code expenses.log.fsync} (record, group, interval) and {@code expenses.log.fsyncIntervalMs}
+   * system properties. A missing log is seeded from the snapshot file if one exists.
+   *
+   * @param logPath      The path of the log file.
+   * @param snapshotPath The plain text expenses file used to seed a new log.
+   * @return The opened log.
+   */
+  public static ExpenseLog open(String logPath, String snapshotPath) throws IOException {
+    FsyncPolicy policy = FsyncPolicy.fromString(System.getProperty(FSYNC_PROPERTY));
+    long interval = Long.getLong(FSYNC_INTERVAL_PROPERTY, DEFAULT_FSYNC_INTERVAL_MS);
+    if (!Files.exists(Paths.get(logPath)) && Files.exists(Paths.get(snapshotPath))) {
+      seed(logPath, Expense.loadExpensesFromFile(snapshotPath));
+    }
+    return new ExpenseLog(logPath, policy, interval);
+  }
+
+  /**
+   * Writes a complete log for the given expenses in one pass and atomically moves it into place.
+   */
+  private static void seed(String logPath, List<Expense> expenses) throws IOException {
+    Path target = Paths.get(logPath);
+    Path temp = Paths.get(logPath + ".tmp");
+    try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      StringBuilder sb = new StringBuilder();
+      for (Expense expense : expenses) {
+        appendRecord(sb, expense);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      out.force(true);
+    }
+    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    Log.info("Seeded expense log with " + expenses.size() + " expenses");
+  }
+
+  /**
+   * Replays every record in the log.
+   *
+   * @param replayer Receives each record in the order it was appended.
+   */
+  public void replay(Replayer replayer) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] fields = line.split("\t", 5);
+        try {
+          if (fields[0].equals(RECORD_ADD) && fields.length == 4) {
+            replayer.add(new Expense(unescape(fields[3]), Double.parseDouble(fields[2]), fields[1]));
+          } else if (fields[0].equals(RECORD_UPDATE) && fields.length == 5) {
+            replayer.update(Integer.parseInt(fields[1]),
+                new Expense(unescape(fields[4]), Double.parseDouble(fields[3]), fields[2]));
+          } else if (fields[0].equals(RECORD_DELETE) && fields.length == 2) {
+            replayer.delete(Integer.parseInt(fields[1]));
+          } else {
+            Log.warn("Skipping invalid log record: " + line);
+            if (fields[0].equals(RECORD_ADD)) {
+              replayer.skip();
+            }
+          }
+        } catch (NumberFormatException e) {
+          Log.warn("Invalid number format in log record: " + line);
+          if (fields[0].equals(RECORD_ADD)) {
+            replayer.skip();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends one expense to the log and, depending on the fsync policy, waits until it is durable.
+   *
+   * @param expense The expense to record.
+   */
+  public void append(Expense expense) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    appendRecord(sb, expense);
+    write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Appends a batch of expenses with a single write and, depending on the fsync policy, waits
+   * until the whole batch is durable. The batch costs one force however many records it holds.
+   *
+   * @param expenses The expenses to record, in order.
+   */
+  public void appendAll(List<Expense> expenses) throws IOException {
+    if (expenses.isEmpty()) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder(expenses.size() * 32);
+    for (Expense expense : expenses) {
+      appendRecord(sb, expense);
+    }
+    write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Appends an update of an expense and, depending on the fsync policy, waits until it is durable.
+   *
+   * @param id      The expense id.
+   * @param expense The new values.
+   */
+  public void appendUpdate(int id, Expense expense) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append(RECORD_UPDATE).append('\t').append(id).append('\t');
+    appendFields(sb, expense);
+    write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Appends a tombstone for an expense and, depending on the fsync policy, waits until it is
+   * durable.
+   *
+   * @param id The expense id.
+   */
+  public void appendDelete(int id) throws IOException {
+    String record = RECORD_DELETE + '\t' + id + '\n';
+    write(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    long sequence;
+    synchronized (this) {
+      long start = channel.position();
+      try {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } catch (IOException e) {
+        // Cut off the partial record, so the next record does not continue its line
+        try {
+          channel.truncate(start);
+          channel.position(start);
+        } catch (IOException truncateError) {
+          e.addSuppressed(truncateError);
+        }
+        throw e;
+      }
+      sequence = ++writtenSequence;
+      if (policy == FsyncPolicy.PER_RECORD) {
+        channel.force(false);
+        syncedSequence = sequence;
+      }
+    }
+    if (policy == FsyncPolicy.GROUP_COMMIT) {
+      awaitDurable(sequence);
+    }
+  }
+
+  /**
+   * Blocks until the record with the given sequence number has been forced. Writers that arrive
+   * while another writer is forcing are covered by the next force, so one force serves a whole
+   * group of concurrent inserts.
+   */
+  private void awaitDurable(long sequence) throws IOException {
+    if (syncedSequence >= sequence) {
+      return;
+    }
+    synchronized (syncLock) {
+      if (syncedSequence >= sequence) {
+        return;
+      }
+      long target;
+      synchronized (this) {
+        target = writtenSequence;
+      }
+      channel.force(false);
+      syncedSequence = target;
+    }
+  }
+
+  private void syncQuietly() {
+    try {
+      long target;
+      synchronized (this) {
+        target = writtenSequence;
+      }
+      if (syncedSequence < target) {
+        awaitDurable(target);
+      }
+    } catch (IOException e) {
+      Log.error("Error syncing expense log: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Drops a partially written last record left behind by a crash, so new appends start on a clean
+   * line.
+   */
+  private void trimTornTail() throws IOException {
+    long size = channel.size();
+    if (size == 0) {
+      return;
+    }
+    ByteBuffer one = ByteBuffer.allocate(1);
+    long position = size - 1;
+    channel.read(one, position);
+    if (one.get(0) == '\n') {
+      return;
+    }
+    while (position > 0) {
+      one.clear();
+      channel.read(one, position - 1);
+      if (one.get(0) == '\n') {
+        break;
+      }
+      position--;
+    }
+    Log.warn("Discarding torn record at end of expense log (" + (size - position)
+        + " bytes)");
+    channel.truncate(position);
+    channel.force(true);
+  }
+
+  private static void appendRecord(StringBuilder sb, Expense expense) {
+    sb.append(RECORD_ADD).append('\t');
+    appendFields(sb, expense);
+  }
+
+  private static void appendFields(StringBuilder sb, Expense expense) {
+    sb.append(Expense.normalizeDate(expense.getDate())).append('\t')
+        .append(expense.getAmount()).append('\t')
+        .append(escape(expense.getCategory())).append('\n');
+  }
+
+  private static String escape(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        default:
+          sb.append(c);
+          break;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String unescape(String value) {
+    if (value.indexOf('\\') < 0) {
+      return value;
+    }
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\' || i + 1 == value.length()) {
+        sb.append(c);
+        continue;
+      }
+      char next = value.charAt(++i);
+      switch (next) {
+        case 't':
+          sb.append('\t');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        default:
+          sb.append(next);
+          break;
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Stops the interval sync, waiting for a sync in progress to finish, then forces and closes the
+   * file. Closing a closed log does nothing.
+   */
+  @Override
+  public void close() throws IOException {
+    if (syncTimer != null) {
+      syncTimer.shutdown();
+      try {
+        if (!syncTimer.awaitTermination(5, TimeUnit.SECONDS)) {
+          Log.warn("Expense log sync did not finish within 5 seconds");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      if (!channel.isOpen()) {
+        return;
+      }
+      channel.force(false);
+      syncedSequence = writtenSequence;
+      channel.close();
+    }
+  }
+}
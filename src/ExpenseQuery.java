@@ -0,0 +1,226 @@
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Paging and projection parameters of {@code GET /api/expenses}.
+ *
+ * <ul>
+ *   <li>{@code limit} - page size, at most {@value #MAX_LIMIT}; without it the whole ledger is
+ *       returned as a plain array</li>
+ *   <li>{@code cursor} - the {@code nextCursor} of the previous page</li>
+ *   <li>{@code sort} - {@code date_desc} (default), {@code date_asc}, {@code amount_desc} or
+ *       {@code amount_asc}</li>
+ *   <li>{@code fields} - comma-separated subset of {@code id,category,amount,date}</li>
+ *   <li>{@code sinceVersion} - the version the client already holds; only the changes made
+ *       after it are returned</li>
+ * </ul>
+ *
+ * <p>Cursors are keyset cursors: they hold the sort key and row of the last expense of a page,
+ * so the next page starts after that expense even if expenses were added in between.
+ */
+public class ExpenseQuery {
+    static final int MAX_LIMIT = 1000;
+
+    static final int FIELD_CATEGORY = 1;
+    static final int FIELD_AMOUNT = 1 << 1;
+    static final int FIELD_DATE = 1 << 2;
+    static final int FIELD_ID = 1 << 3;
+    static final int ALL_FIELDS = FIELD_ID | FIELD_CATEGORY | FIELD_AMOUNT | FIELD_DATE;
+
+    private int limit = -1;
+    private ExpenseSnapshot.SortOrder sort = ExpenseSnapshot.SortOrder.DATE_DESC;
+    private boolean hasCursor;
+    private long cursorKey;
+    private int cursorRow;
+    private int fields = ALL_FIELDS;
+    private long sinceVersion = -1;
+
+    /**
+     * Parses a raw query string.
+     *
+     * @param rawQuery The query string, may be null.
+     * @return The parsed query.
+     * @throws IllegalArgumentException If a parameter is invalid.
+     */
+    public static ExpenseQuery parse(String rawQuery) {
+        ExpenseQuery query = new ExpenseQuery();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+
+        String cursor = null;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            switch (key) {
+                case "limit":
+                    try {
+                        query.limit = Math.min(Integer.parseInt(value), MAX_LIMIT);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid limit: " + value);
+                    }
+                    if (query.limit < 1) {
+                        throw new IllegalArgumentException("Invalid limit: " + value);
+                    }
+                    break;
+                case "sort":
+                    query.sort = parseSort(value);
+                    break;
+                case "cursor":
+                    cursor = value;
+                    break;
+                case "fields":
+                    query.fields = parseFields(value);
+                    break;
+                case "sinceVersion":
+                    try {
+                        query.sinceVersion = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid sinceVersion: " + value);
+                    }
+                    if (query.sinceVersion < 0) {
+                        throw new IllegalArgumentException("Invalid sinceVersion: " + value);
+                    }
+                    break;
+                default:
+                    // Unknown parameters are ignored
+                    break;
+            }
+        }
+
+        if (cursor != null && !cursor.isEmpty()) {
+            query.decodeCursor(cursor);
+            if (query.limit < 0) {
+                query.limit = MAX_LIMIT;
+            }
+        }
+        return query;
+    }
+
+    private static ExpenseSnapshot.SortOrder parseSort(String value) {
+        switch (value.toLowerCase()) {
+            case "":
+            case "date":
+            case "date_desc":
+                return ExpenseSnapshot.SortOrder.DATE_DESC;
+            case "date_asc":
+                return ExpenseSnapshot.SortOrder.DATE_ASC;
+            case "amount":
+            case "amount_desc":
+                return ExpenseSnapshot.SortOrder.AMOUNT_DESC;
+            case "amount_asc":
+                return ExpenseSnapshot.SortOrder.AMOUNT_ASC;
+            default:
+                throw new IllegalArgumentException("Invalid sort: " + value);
+        }
+    }
+
+    private static int parseFields(String value) {
+        int mask = 0;
+        for (String field : value.split(",")) {
+            switch (field.trim()) {
+                case "id":
+                    mask |= FIELD_ID;
+                    break;
+                case "category":
+                    mask |= FIELD_CATEGORY;
+                    break;
+                case "amount":
+                    mask |= FIELD_AMOUNT;
+                    break;
+                case "date":
+                    mask |= FIELD_DATE;
+                    break;
+                case "":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        }
+        return mask == 0 ? ALL_FIELDS : mask;
+    }
+
+    /**
+     * Encodes the cursor that continues after a row.
+     *
+     * @param sort The sort order of the page.
+     * @param key  The sort key of the row.
+     * @param row  The row index.
+     * @return The opaque cursor.
+     */
+    static String encodeCursor(ExpenseSnapshot.SortOrder sort, long key, int row) {
+        String plain = sort.ordinal() + ":" + key + ":" + row;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void decodeCursor(String cursor) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        try {
+            int order = Integer.parseInt(parts[0]);
+            cursorKey = Long.parseLong(parts[1]);
+            cursorRow = Integer.parseInt(parts[2]);
+            if (order != sort.ordinal()) {
+                throw new IllegalArgumentException("Cursor does not match sort order");
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        hasCursor = true;
+    }
+
+    /**
+     * Returns whether a page was requested. Otherwise the whole ledger is returned as an array.
+     *
+     * @return True if {@code limit} or {@code cursor} was given.
+     */
+    public boolean isPaged() {
+        return limit > 0;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public ExpenseSnapshot.SortOrder getSort() {
+        return sort;
+    }
+
+    public boolean hasCursor() {
+        return hasCursor;
+    }
+
+    public long getCursorKey() {
+        return cursorKey;
+    }
+
+    public int getCursorRow() {
+        return cursorRow;
+    }
+
+    public int getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns whether only the changes since a version were requested.
+     *
+     * @return True if {@code sinceVersion} was given.
+     */
+    public boolean isDelta() {
+        return sinceVersion >= 0;
+    }
+
+    public long getSinceVersion() {
+        return sinceVersion;
+    }
+}
@@ -1,15 +1,30 @@
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 
 public class ExpenseReportGenerator {
 
-  private final List<Expense> expenses;
+  private final ExpenseStore store;
   private final Scanner scanner;
 
-  public ExpenseReportGenerator(List<Expense> expenses) {
-    this.expenses = expenses;
-    this.scanner = new Scanner(System.in);
+  /**
+   * Creates a generator for the totals only; the interactive reports need a scanner.
+   *
+   * @param store The expense store.
+   */
+  public ExpenseReportGenerator(ExpenseStore store) {
+    this(store, null);
+  }
+
+  /**
+   * Creates a generator that reads the interactive report choices from the console.
+   *
+   * @param store   The expense store.
+   * @param scanner The scanner of the console input, shared with the menus.
+   */
+  public ExpenseReportGenerator(ExpenseStore store, Scanner scanner) {
+    this.store = store;
+    this.scanner = scanner;
   }
 
   /**
@@ -29,40 +44,45 @@ public class ExpenseReportGenerator {
     System.out.println("Enter end date (in format YYYY-MM-DD, DD.MM.YYYY, or MM/DD/YYYY):");
     String endDateInput = scanner.next();
 
-    Date startDate = parseDate(startDateInput);
-    Date endDate = parseDate(endDateInput);
+    int startDay = ExpenseDates.toEpochDay(startDateInput);
+    int endDay = ExpenseDates.toEpochDay(endDateInput);
 
-    if (startDate != null && endDate != null) {
+    if (startDay != ExpenseDates.INVALID && endDay != ExpenseDates.INVALID) {
       String selectedCategory = categoryChoice == 0 ? "All categories" : categories.get(categoryChoice - 1);
-      Map<String, List<Expense>> categoryExpensesMap = new HashMap<>();
-
-      for (Expense expense : expenses) {
-        Date expenseDate = parseDate(expense.getDate());
-        String expenseCategory = expense.getCategory();
-        if (expenseDate != null && (selectedCategory.equals("All categories") || expenseCategory.equals(selectedCategory))
-            && expenseDate.compareTo(startDate) >= 0 && expenseDate.compareTo(endDate) <= 0) {
-          categoryExpensesMap.computeIfAbsent(expenseCategory, k -> new ArrayList<>());
-          categoryExpensesMap.get(expenseCategory).add(expense);
-        }
-      }
+      ExpenseSnapshot snapshot = store.snapshot();
+      int selectedCategoryId = categoryChoice == 0 ? -1 : snapshot.categoryId(selectedCategory);
+      // The date index returns matching rows already in date order; wide ranges are grouped in
+      // parallel, one date partition per task, and the groups concatenated in date order
+      Map<String, List<Expense>> categoryExpensesMap = snapshot.aggregateDateRange(startDay, endDay,
+          selectedCategoryId, new ReportEngine.Aggregation<>() {
+            @Override
+            public Map<String, List<Expense>> aggregate(ReportEngine.Partition partition) {
+              Map<String, List<Expense>> partial = new HashMap<>();
+              partition.scan((row, epochDay, amountCents, categoryId) -> {
+                Expense expense = snapshot.get(row);
+                partial.computeIfAbsent(expense.getCategory(), k -> new ArrayList<>());
+                partial.get(expense.getCategory()).add(expense);
+              });
+              return partial;
+            }
+
+            @Override
+            public Map<String, List<Expense>> merge(Map<String, List<Expense>> earlier,
+                Map<String, List<Expense>> later) {
+              for (Map.Entry<String, List<Expense>> entry : later.entrySet()) {
+                earlier.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+              }
+              return earlier;
+            }
+          });
 
       System.out.println("======================================");
       System.out.println("Category: " + selectedCategory);
       System.out.println("Period: from " + startDateInput + " to " + endDateInput);
 
-      Comparator<Expense> expenseDateComparator = (e1, e2) -> {
-        Date date1 = parseDate(e1.getDate());
-        Date date2 = parseDate(e2.getDate());
-        if (date1 != null && date2 != null) {
-          return date1.compareTo(date2);
-        } else {
-          return 0;
-        }
-      };
       for (Map.Entry<String, List<Expense>> entry : categoryExpensesMap.entrySet()) {
         String category = entry.getKey();
         List<Expense> categoryExpenses = entry.getValue();
-        categoryExpenses.sort(expenseDateComparator);
         for (Expense expense : categoryExpenses) {
           double amount = expense.getAmount();
           System.out.printf("%-11s | %-18s | %.1f%n", expense.getDate(), category, amount);
@@ -169,18 +189,9 @@ public class ExpenseReportGenerator {
    * @return The total expenses for the specified year.
    */
   public double getTotalExpensesForYear(int year) {
-    double totalExpenses = 0.0;
-    for (Expense expense : expenses) {
-      Date expenseDate = parseDate(expense.getDate());
-      if (expenseDate != null) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(expenseDate);
-        if (cal.get(Calendar.YEAR) == year) {
-          totalExpenses += expense.getAmount();
-        }
-      }
-    }
-    return totalExpenses;
+    // Twelve rollup cells per category instead of visiting the rows
+    long totalCents = store.rollup(year * 12, year * 12 + 11, -1).sumCents();
+    return ExpenseStore.fromCents(totalCents);
   }
 
   /**
@@ -190,35 +201,19 @@ public class ExpenseReportGenerator {
    * @return The total expenses for the specified month.
    */
   public double getTotalExpensesInMonth(Calendar monthStart) {
-    double totalExpenses = 0.0;
-    for (Expense expense : expenses) {
-      Date expenseDate = parseDate(expense.getDate());
-      if (expenseDate != null) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(expenseDate);
-        if (cal.get(Calendar.YEAR) == monthStart.get(Calendar.YEAR) &&
-            cal.get(Calendar.MONTH) == monthStart.get(Calendar.MONTH)) {
-          totalExpenses += expense.getAmount();
-        }
-      }
-    }
-    return totalExpenses;
+    int year = monthStart.get(Calendar.YEAR);
+    int month = year * 12 + monthStart.get(Calendar.MONTH);
+    long totalCents = store.rollup(month, month, -1).sumCents();
+    return ExpenseStore.fromCents(totalCents);
   }
 
   /**
-   * Retrieves a list of distinct expense categories from the expenses list.
+   * Retrieves a list of distinct expense categories from the expense store.
    *
    * @return List of distinct expense categories.
    */
   public List<String> getDistinctCategories() {
-    List<String> distinctCategories = new ArrayList<>();
-    for (Expense expense : expenses) {
-      String category = expense.getCategory();
-      if (!distinctCategories.contains(category)) {
-        distinctCategories.add(category);
-      }
-    }
-    return distinctCategories;
+    return new ArrayList<>(store.snapshot().getCategoryNames());
   }
 
   /**
@@ -229,93 +224,16 @@ public class ExpenseReportGenerator {
    */
   public Date parseDate(String dateStr) {
     if (dateStr == null || dateStr.trim().isEmpty()) {
-      System.err.println("Empty date string provided");
+      Log.debug(() -> "Empty date string provided");
       return null;
     }
 
-    try {
-      // Check if date is in YYYY-MM-DD format (ISO format)
-      if (dateStr.matches("\\d{4}-\\d{2}-\\d{2}")) {
-        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd");
-        isoFormat.setLenient(false);
-        return isoFormat.parse(dateStr);
-      }
-
-      // Check if date is in DD.MM.YYYY format
-      if (dateStr.matches("\\d{1,2}\\.\\d{1,2}\\.\\d{4}")) {
-        SimpleDateFormat dotFormat = new SimpleDateFormat("dd.MM.yyyy");
-        dotFormat.setLenient(false);
-        return dotFormat.parse(dateStr);
-      }
-
-      // Check if date is in MM/DD/YYYY format
-      if (dateStr.matches("\\d{1,2}/\\d{1,2}/\\d{4}")) {
-        SimpleDateFormat slashFormat = new SimpleDateFormat("MM/dd/yyyy");
-        slashFormat.setLenient(false);
-        return slashFormat.parse(dateStr);
-      }
-
-      // Try to normalize the date format if it doesn't match any of the above patterns
-      String normalizedDate = normalizeDate(dateStr);
-      if (!normalizedDate.equals(dateStr)) {
-        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd");
-        isoFormat.setLenient(false);
-        return isoFormat.parse(normalizedDate);
-      }
-
-      // Last resort: try with default format
-      SimpleDateFormat defaultFormat = new SimpleDateFormat("yyyy-MM-dd");
-      defaultFormat.setLenient(false);
-      return defaultFormat.parse(dateStr);
-    } catch (ParseException e) {
-      System.err.println("Error parsing date: " + e.getMessage() + " for date: " + dateStr);
+    int epochDay = ExpenseDates.toEpochDay(dateStr);
+    if (epochDay == ExpenseDates.INVALID) {
+      Log.debug(() -> "Error parsing date: " + dateStr);
       return null;
     }
-  }
-
-  /**
-   * Normalizes date format to yyyy-MM-dd for consistent handling
-   *
-   * @param dateStr The date string to normalize
-   * @return Normalized date string in yyyy-MM-dd format
-   */
-  private String normalizeDate(String dateStr) {
-    if (dateStr == null || dateStr.trim().isEmpty()) {
-      return "";
-    }
-
-    // Check if date is already in YYYY-MM-DD format
-    if (dateStr.matches("\\d{4}-\\d{2}-\\d{2}")) {
-      return dateStr;
-    }
-
-    // Try to convert from DD.MM.YYYY to YYYY-MM-DD
-    try {
-      String[] parts = dateStr.split("\\.");
-      if (parts.length == 3) {
-        String day = parts[0].length() == 1 ? "0" + parts[0] : parts[0];
-        String month = parts[1].length() == 1 ? "0" + parts[1] : parts[1];
-        String year = parts[2];
-        return year + "-" + month + "-" + day;
-      }
-    } catch (Exception e) {
-      System.err.println("Error normalizing date '" + dateStr + "': " + e.getMessage());
-    }
-
-    // Try to convert from MM/DD/YYYY to YYYY-MM-DD
-    try {
-      String[] parts = dateStr.split("/");
-      if (parts.length == 3) {
-        String month = parts[0].length() == 1 ? "0" + parts[0] : parts[0];
-        String day = parts[1].length() == 1 ? "0" + parts[1] : parts[1];
-        String year = parts[2];
-        return year + "-" + month + "-" + day;
-      }
-    } catch (Exception e) {
-      System.err.println("Error normalizing date '" + dateStr + "': " + e.getMessage());
-    }
-
-    return dateStr; // Return original if normalization fails
+    return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
   }
 
   /**
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Process-wide in-memory repository of expenses.
+ *
+ * <p>The ledger is loaded once from the expense log (seeded from {@code res/expenses.txt}) and
+ * every new, updated or deleted expense is appended to both the log and the columnar
+ * {@link ExpenseStore}, so handlers can serve reads from memory without touching the disk.
+ */
+public class ExpenseRepository {
+
+  private static final String FILE_PATH = "res/expenses.txt";
+  private static final String LOG_PATH = ExpenseLog.DEFAULT_LOG_PATH;
+
+  private static ExpenseRepository instance;
+
+  private final ExpenseStore store = new ExpenseStore();
+  private final ExpenseLog expenseLog;
+
+  private ExpenseRepository() {
+    expenseLog = openExpenseLog();
+  }
+
+  /**
+   * Returns the shared repository, loading the ledger on first use.
+   *
+   * @return The process-wide expense repository.
+   */
+  public static synchronized ExpenseRepository getInstance() {
+    if (instance == null) {
+      instance = new ExpenseRepository();
+    }
+    return instance;
+  }
+
+  private ExpenseLog openExpenseLog() {
+    try {
+      ExpenseLog log = ExpenseLog.open(LOG_PATH, FILE_PATH);
+      store.beginBulkLoad();
+      log.replay(new ExpenseLog.Replayer() {
+        @Override
+        public void add(Expense expense) {
+          load(expense);
+        }
+
+        @Override
+        public void update(int id, Expense expense) {
+          try {
+            if (!store.update(id, expense)) {
+              Log.warn("Skipping update of unknown expense " + id);
+            }
+          } catch (IllegalArgumentException e) {
+            Log.warn("Skipping update with invalid date: " + expense.getDate());
+          }
+        }
+
+        @Override
+        public void delete(int id) {
+          if (!store.remove(id)) {
+            Log.warn("Skipping delete of unknown expense " + id);
+          }
+        }
+
+        @Override
+        public void skip() {
+          store.skipId();
+        }
+      });
+      store.endBulkLoad();
+      Log.info("Loaded " + store.snapshot().size() + " expenses from " + LOG_PATH);
+      return log;
+    } catch (IOException e) {
+      Log.warn("Unable to open expense log, falling back to " + FILE_PATH + ": "
+          + e.getMessage());
+      store.beginBulkLoad();
+      Expense.loadExpensesFromFile(FILE_PATH).forEach(this::load);
+      store.endBulkLoad();
+      return null;
+    }
+  }
+
+  private void load(Expense expense) {
+    if (expense.getEpochDay() == ExpenseDates.INVALID) {
+      // The record still takes its id, so the ids of later expenses do not shift
+      Log.warn("Skipping expense with invalid date: " + expense.getDate());
+      store.skipId();
+      return;
+    }
+    store.add(expense);
+  }
+
+  /**
+   * Returns the in-memory store holding all expenses. Readers take a snapshot of the store; new
+   * expenses are visible in snapshots taken after they are added.
+   *
+   * @return The expense store.
+   */
+  public ExpenseStore getStore() {
+    return store;
+  }
+
+  /**
+   * Adds an expense and appends it to the expense log. Only the new record is written.
+   *
+   * @param expense The expense to record.
+   * @return The id of the new expense.
+   * @throws IllegalArgumentException If the expense date cannot be parsed.
+   */
+  public synchronized int add(Expense expense) throws IOException {
+    if (expense.getEpochDay() == ExpenseDates.INVALID) {
+      throw new IllegalArgumentException("Invalid date: " + expense.getDate());
+    }
+    if (expenseLog != null) {
+      expenseLog.append(expense);
+      return store.add(expense);
+    }
+    int id = store.add(expense);
+    Expense.saveExpensesToFile(store.snapshot().toExpenses(), FILE_PATH);
+    return id;
+  }
+
+  /**
+   * Replaces an expense and appends an update record to the expense log.
+   *
+   * @param id      The expense id.
+   * @param expense The new values.
+   * @return False if no expense has this id.
+   * @throws IllegalArgumentException If the expense date cannot be parsed.
+   */
+  public synchronized boolean update(int id, Expense expense) throws IOException {
+    if (expense.getEpochDay() == ExpenseDates.INVALID) {
+      throw new IllegalArgumentException("Invalid date: " + expense.getDate());
+    }
+    if (!store.contains(id)) {
+      return false;
+    }
+    if (expenseLog != null) {
+      expenseLog.appendUpdate(id, expense);
+      store.update(id, expense);
+    } else {
+      store.update(id, expense);
+      Expense.saveExpensesToFile(store.snapshot().toExpenses(), FILE_PATH);
+    }
+    return true;
+  }
+
+  /**
+   * Deletes an expense and appends a tombstone to the expense log.
+   *
+   * @param id The expense id.
+   * @return False if no expense has this id.
+   */
+  public synchronized boolean remove(int id) throws IOException {
+    if (!store.contains(id)) {
+      return false;
+    }
+    if (expenseLog != null) {
+      expenseLog.appendDelete(id);
+      store.remove(id);
+    } else {
+      store.remove(id);
+      Expense.saveExpensesToFile(store.snapshot().toExpenses(), FILE_PATH);
+    }
+    return true;
+  }
+
+  /**
+   * Adds a batch of expenses with one append to the expense log and one update of the store.
+   * The batch is visible to readers only once it is durable.
+   *
+   * @param expenses The expenses to record, in order.
+   * @return The id of the first expense; the others follow in order.
+   * @throws IllegalArgumentException If an expense date cannot be parsed; nothing is recorded.
+   */
+  public synchronized int addAll(List<Expense> expenses) throws IOException {
+    for (Expense expense : expenses) {
+      if (expense.getEpochDay() == ExpenseDates.INVALID) {
+        throw new IllegalArgumentException("Invalid date: " + expense.getDate());
+      }
+    }
+    if (expenseLog != null) {
+      expenseLog.appendAll(expenses);
+      return store.addAll(expenses);
+    }
+    int firstId = store.addAll(expenses);
+    Expense.saveExpensesToFile(store.snapshot().toExpenses(), FILE_PATH);
+    return firstId;
+  }
+
+  /**
+   * Writes all expenses to the plain text export file.
+   */
+  public void export() {
+    Expense.saveExpensesToFile(store.snapshot().toExpenses(), FILE_PATH);
+  }
+
+  /**
+   * Flushes and closes the expense log.
+   */
+  public synchronized void close() {
+    if (expenseLog != null) {
+      try {
+        expenseLog.close();
+      } catch (IOException e) {
+        Log.warn("Error closing expense log: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+import java.io.IOException;
+
+/**
+ * Body of a request that adds an expense: {@code {"category": ..., "amount": ..., "date": ...}}.
+ *
+ * @param category The category name.
+ * @param amount   The amount, NaN if missing.
+ * @param date     The date as sent by the client.
+ */
+public record ExpenseRequest(String category, double amount, String date) {
+
+    /**
+     * Binds the next JSON object of a reader. Unknown members are skipped.
+     *
+     * @param reader The reader.
+     * @return The request.
+     * @throws IllegalArgumentException If the JSON is malformed.
+     */
+    public static ExpenseRequest read(JsonReader reader) throws IOException {
+        String category = null;
+        double amount = Double.NaN;
+        String date = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "category" -> category = reader.nextStringOrNull();
+                case "amount" -> amount = reader.nextDouble();
+                case "date" -> date = reader.nextStringOrNull();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new ExpenseRequest(category, amount, date);
+    }
+
+    /**
+     * Returns the expense id at the end of a {@code /api/expenses/{id}} path.
+     *
+     * @param path The request path.
+     * @return The id.
+     * @throws IllegalArgumentException If the path does not end with a valid id.
+     */
+    public static int parseId(String path) {
+        String id = path.substring(path.lastIndexOf('/') + 1);
+        try {
+            int value = Integer.parseInt(id);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid expense id: " + id);
+    }
+
+    /**
+     * Checks the fields and converts the request to an expense with a normalized date.
+     *
+     * @return The expense.
+     * @throws IllegalArgumentException If a field is missing or invalid.
+     */
+    public Expense toExpense() {
+        if (category == null || category.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing category");
+        }
+        if (!Double.isFinite(amount)) {
+            throw new IllegalArgumentException("Missing or invalid amount");
+        }
+        if (date == null || date.isEmpty()) {
+            throw new IllegalArgumentException("Missing date");
+        }
+        return new Expense(category, amount, Expense.normalizeDate(date));
+    }
+}
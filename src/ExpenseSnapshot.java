@@ -0,0 +1,356 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable, versioned view of an {@link ExpenseStore} at one point in time.
+ *
+ * <p>A snapshot shares the store's column chunks and index arrays instead of copying them. The
+ * store only ever writes past the end of what existing snapshots can see, or into fresh arrays,
+ * so a report can iterate a snapshot for as long as it needs while new expenses are added.
+ *
+ * <p>Rows retired by a later delete or update stay visible to the snapshot; rows retired at or
+ * before its version are skipped. The date indexes may still hold such rows as tombstones, so
+ * date-ordered positions can point at rows this snapshot does not see.
+ */
+public final class ExpenseSnapshot {
+
+  /**
+   * Orders in which rows can be paged with {@link #rowAt(SortOrder, int)}. Ties are broken by row
+   * index, so every order is total and a (key, row) pair identifies a position in it.
+   */
+  public enum SortOrder {
+    DATE_ASC, DATE_DESC, AMOUNT_ASC, AMOUNT_DESC;
+
+    public boolean byAmount() {
+      return this == AMOUNT_ASC || this == AMOUNT_DESC;
+    }
+
+    public boolean descending() {
+      return this == DATE_DESC || this == AMOUNT_DESC;
+    }
+  }
+
+  private final long version;
+  private final int rowCount;
+  private final int size;
+  private final int[][] dayChunks;
+  private final long[][] centChunks;
+  private final int[][] categoryChunks;
+  private final int[][] idChunks;
+  private final long[][] retiredChunks;
+  private final String[] categoryNames;
+  private final Map<String, Integer> categoryIds;
+  private final DateIndex.View dateIndex;
+  private final DateIndex.View[] categoryIndexes;
+  // Newest amount order of the store, shared by its snapshots; this snapshot's own is built lazily
+  private final AtomicReference<AmountOrder> latestAmountOrder;
+  private volatile AmountOrder amountOrder;
+
+  ExpenseSnapshot(long version, int rowCount, int size, int[][] dayChunks, long[][] centChunks,
+      int[][] categoryChunks, int[][] idChunks, long[][] retiredChunks, String[] categoryNames,
+      Map<String, Integer> categoryIds, DateIndex.View dateIndex,
+      DateIndex.View[] categoryIndexes, AtomicReference<AmountOrder> latestAmountOrder) {
+    this.version = version;
+    this.rowCount = rowCount;
+    this.size = size;
+    this.dayChunks = dayChunks;
+    this.centChunks = centChunks;
+    this.categoryChunks = categoryChunks;
+    this.idChunks = idChunks;
+    this.retiredChunks = retiredChunks;
+    this.categoryNames = categoryNames;
+    this.categoryIds = categoryIds;
+    this.dateIndex = dateIndex;
+    this.categoryIndexes = categoryIndexes;
+    this.latestAmountOrder = latestAmountOrder;
+  }
+
+  /**
+   * Returns the store version this snapshot was taken at. Every write to the store increases the
+   * version.
+   *
+   * @return The version.
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * Returns the number of expenses in this snapshot, not counting deleted and replaced rows.
+   *
+   * @return The number of expenses.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of rows, including rows that are no longer current. Row indexes run from 0
+   * to this count - 1.
+   *
+   * @return The number of rows.
+   */
+  public int rowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Returns whether a row holds a current expense in this snapshot.
+   *
+   * @param row The row index.
+   * @return False if the expense was deleted or replaced at or before this version.
+   */
+  public boolean isCurrent(int row) {
+    long retired = retiredChunks[row >>> ExpenseStore.CHUNK_SHIFT][row & ExpenseStore.CHUNK_MASK];
+    return retired == 0 || retired > version;
+  }
+
+  public int id(int row) {
+    return idChunks[row >>> ExpenseStore.CHUNK_SHIFT][row & ExpenseStore.CHUNK_MASK];
+  }
+
+  public int epochDay(int row) {
+    return dayChunks[row >>> ExpenseStore.CHUNK_SHIFT][row & ExpenseStore.CHUNK_MASK];
+  }
+
+  public long amountCents(int row) {
+    return centChunks[row >>> ExpenseStore.CHUNK_SHIFT][row & ExpenseStore.CHUNK_MASK];
+  }
+
+  public int categoryId(int row) {
+    return categoryChunks[row >>> ExpenseStore.CHUNK_SHIFT][row & ExpenseStore.CHUNK_MASK];
+  }
+
+  /**
+   * Returns the id of a category known to this snapshot.
+   *
+   * @param category The category name.
+   * @return The category id, or -1 if no expense in this snapshot has this category.
+   */
+  public int categoryId(String category) {
+    Integer id = category == null ? null : categoryIds.get(category);
+    return id == null || id >= categoryNames.length ? -1 : id;
+  }
+
+  public String categoryName(int categoryId) {
+    return categoryNames[categoryId];
+  }
+
+  /**
+   * Returns the names of all categories in the order they were first seen.
+   *
+   * @return The category names, indexed by category id.
+   */
+  public List<String> getCategoryNames() {
+    return Collections.unmodifiableList(Arrays.asList(categoryNames));
+  }
+
+  /**
+   * Materializes a row as an {@link Expense} with an ISO date.
+   *
+   * @param row The row index.
+   * @return The expense.
+   */
+  public Expense get(int row) {
+    return new Expense(categoryName(categoryId(row)), ExpenseStore.fromCents(amountCents(row)),
+        epochDay(row));
+  }
+
+  /**
+   * Materializes all rows, for example to export them.
+   *
+   * @return All current expenses in insertion order.
+   */
+  public List<Expense> toExpenses() {
+    List<Expense> expenses = new ArrayList<>(size());
+    for (int row = 0; row < rowCount; row++) {
+      if (isCurrent(row)) {
+        expenses.add(get(row));
+      }
+    }
+    return expenses;
+  }
+
+  /**
+   * Visits every current row in insertion order.
+   *
+   * @param visitor Receives each row.
+   */
+  public void scan(ExpenseStore.RowVisitor visitor) {
+    scan(0, rowCount, visitor);
+  }
+
+  /**
+   * Visits the current rows in {@code [from, to)} in insertion order, one chunk at a time.
+   *
+   * @param from    The first row to visit.
+   * @param to      The row after the last row to visit.
+   * @param visitor Receives each row.
+   */
+  public void scan(int from, int to, ExpenseStore.RowVisitor visitor) {
+    int row = from;
+    while (row < to) {
+      int chunk = row >>> ExpenseStore.CHUNK_SHIFT;
+      int[] days = dayChunks[chunk];
+      long[] cents = centChunks[chunk];
+      int[] categories = categoryChunks[chunk];
+      long[] retired = retiredChunks[chunk];
+      int end = Math.min(to, (chunk + 1) << ExpenseStore.CHUNK_SHIFT);
+      for (int offset = row & ExpenseStore.CHUNK_MASK; row < end; row++, offset++) {
+        if (retired[offset] == 0 || retired[offset] > version) {
+          visitor.visit(row, days[offset], cents[offset], categories[offset]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits the rows with a date in {@code [fromDay, toDay]} in date order. Rows with the same date
+   * are visited in insertion order.
+   *
+   * @param fromDay    The first epoch day, inclusive.
+   * @param toDay      The last epoch day, inclusive.
+   * @param categoryId The category to include, or -1 for all categories.
+   * @param visitor    Receives each matching row.
+   */
+  public void scanDateRange(int fromDay, int toDay, int categoryId,
+      ExpenseStore.RowVisitor visitor) {
+    DateIndex.View index = categoryId < 0 ? dateIndex : categoryIndexes[categoryId];
+    int end = index.upperBound(toDay);
+    for (int position = index.lowerBound(fromDay); position < end; position++) {
+      int row = index.row(position);
+      if (isCurrent(row)) {
+        visitor.visit(row, index.day(position), amountCents(row), categoryId(row));
+      }
+    }
+  }
+
+  /**
+   * Returns the number of date index positions in {@code [fromDay, toDay]}, which is what
+   * {@link #scanDateRange(int, int, int, ExpenseStore.RowVisitor)} visits. Tombstones are counted.
+   *
+   * @param fromDay    The first epoch day, inclusive.
+   * @param toDay      The last epoch day, inclusive.
+   * @param categoryId The category to count, or -1 for all categories.
+   * @return The number of positions.
+   */
+  public int positionsInDateRange(int fromDay, int toDay, int categoryId) {
+    DateIndex.View index = categoryId < 0 ? dateIndex : categoryIndexes[categoryId];
+    return Math.max(0, index.upperBound(toDay) - index.lowerBound(fromDay));
+  }
+
+  /**
+   * Aggregates the rows with a date in {@code [fromDay, toDay]}, splitting wide ranges into date
+   * partitions that are aggregated in parallel, see {@link ReportEngine}.
+   *
+   * @param fromDay     The first epoch day, inclusive.
+   * @param toDay       The last epoch day, inclusive.
+   * @param categoryId  The category to include, or -1 for all categories.
+   * @param aggregation Aggregates each partition and merges the partial results.
+   * @return The merged result.
+   */
+  public <A> A aggregateDateRange(int fromDay, int toDay, int categoryId,
+      ReportEngine.Aggregation<A> aggregation) {
+    DateIndex.View index = categoryId < 0 ? dateIndex : categoryIndexes[categoryId];
+    int from = index.lowerBound(fromDay);
+    return ReportEngine.aggregate(this, index, from, Math.max(from, index.upperBound(toDay)), aggregation);
+  }
+
+  /**
+   * Returns the number of positions of a sort order. Date orders may include tombstones of rows
+   * this snapshot does not see, so there can be more positions than {@link #size()}.
+   *
+   * @param order The sort order.
+   * @return The number of positions.
+   */
+  public int positions(SortOrder order) {
+    return order.byAmount() ? amountOrder().size() : dateIndex.size();
+  }
+
+  /**
+   * Returns the row at a position of a sort order. The first amount-ordered call builds the
+   * amount order of this snapshot, see {@link AmountOrder}.
+   *
+   * @param order    The sort order.
+   * @param position The position, from 0 to {@link #positions(SortOrder)} - 1.
+   * @return The row index, which may not be current in this snapshot, see
+   *         {@link #nextCurrent(SortOrder, int)}.
+   */
+  public int rowAt(SortOrder order, int position) {
+    int ascending = order.descending() ? positions(order) - 1 - position : position;
+    return order.byAmount() ? amountOrder().row(ascending) : dateIndex.row(ascending);
+  }
+
+  /**
+   * Returns the first position at or after a given one that holds a current row.
+   *
+   * @param order    The sort order.
+   * @param position The position to start from.
+   * @return The position, or {@link #positions(SortOrder)} if no current row follows.
+   */
+  public int nextCurrent(SortOrder order, int position) {
+    int positions = positions(order);
+    while (position < positions && !isCurrent(rowAt(order, position))) {
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * Returns the sort key of a row: its epoch day for date orders, its amount in cents for amount
+   * orders.
+   *
+   * @param order The sort order.
+   * @param row   The row index.
+   * @return The sort key.
+   */
+  public long sortKey(SortOrder order, int row) {
+    return order.byAmount() ? amountCents(row) : epochDay(row);
+  }
+
+  /**
+   * Returns the first position of a sort order that comes after a given (key, row) pair. Because
+   * rows never move, the pair of the last row of a page stays a valid cursor while new rows are
+   * added.
+   *
+   * @param order The sort order.
+   * @param key   The sort key of the last row seen.
+   * @param row   The last row seen.
+   * @return The position to continue from, or {@link #positions(SortOrder)} if nothing follows.
+   */
+  public int positionAfter(SortOrder order, long key, int row) {
+    // Binary search the ascending order for the first (key, row) pair not below the cursor
+    boolean byAmount = order.byAmount();
+    AmountOrder amountIndex = byAmount ? amountOrder() : null;
+    int size = positions(order);
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int midRow = byAmount ? amountIndex.row(mid) : dateIndex.row(mid);
+      long midKey = byAmount ? amountIndex.amountCents(mid) : dateIndex.day(mid);
+      if (midKey < key || (midKey == key && midRow < row)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (order.descending()) {
+      return size - low;
+    }
+    return low < size && rowAt(order, low) == row ? low + 1 : low;
+  }
+
+  private AmountOrder amountOrder() {
+    AmountOrder order = amountOrder;
+    if (order == null) {
+      order = AmountOrder.build(this, latestAmountOrder);
+      amountOrder = order;
+    }
+    return order;
+  }
+}
@@ -0,0 +1,658 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Columnar in-memory store of expenses.
+ *
+ * <p>Each expense is a row spread over three primitive columns: the date as an epoch day, the
+ * amount in cents and a category id. Category names are kept once in a dictionary. Columns grow
+ * in fixed-size chunks, so adding rows never copies existing data, and a row costs 16 bytes
+ * instead of an {@link Expense} object with two strings.
+ *
+ * <p>Every expense has a stable id, handed out in the order expenses are added. Rows are never
+ * changed once written: deleting an expense retires its row, and updating one retires the old row
+ * and adds a new row with the same id. A chunked id to row array finds the current row of an id
+ * in O(1).
+ *
+ * <p>A {@link DateIndex} over all rows and one per category keep rows ordered by date, so
+ * date-range queries cost a binary search plus the matching rows. Deleted and replaced rows stay
+ * in them as tombstones until enough pile up to compact them. Snapshots order rows by amount
+ * lazily for paging by amount, see {@link AmountOrder}. Two {@link RollupCube}s keep the sum,
+ * count, minimum and maximum of every category and month, and of every category and day, so the
+ * totals of any date range are read from at most two partial months of day cells plus the whole
+ * months between them, without visiting rows.
+ *
+ * <p>Every change after loading is recorded in a bounded {@link ChangeJournal} with the version
+ * that published it, so clients can fetch only what changed since the version they hold.
+ *
+ * <p>The store has a single writer at a time. Readers take an immutable {@link ExpenseSnapshot}
+ * with {@link #snapshot()}, which never blocks and never copies rows. Totals are read with an
+ * optimistic {@link StampedLock} read that only falls back to a read lock if a write overlapped.
+ */
+public class ExpenseStore {
+
+  static final int CHUNK_SHIFT = 12;
+  static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /**
+   * Receives rows from {@link ExpenseSnapshot#scan(RowVisitor)}.
+   */
+  @FunctionalInterface
+  public interface RowVisitor {
+    void visit(int row, int epochDay, long amountCents, int categoryId);
+  }
+
+  private int[][] dayChunks = new int[0][];
+  private long[][] centChunks = new long[0][];
+  private int[][] categoryChunks = new int[0][];
+  private int[][] idChunks = new int[0][];
+  // Store version at which a row was deleted or replaced, 0 while the row is current
+  private long[][] retiredChunks = new long[0][];
+  private int size;
+  // Rows that are current as of the latest write
+  private int liveRows;
+
+  // Current row of each id plus one, 0 if the id is unknown or deleted
+  private int[][] slotChunks = new int[0][];
+  private int nextId = 1;
+
+  private DateIndex dateIndex = new DateIndex(this::isRetired);
+  private final AtomicReference<AmountOrder> latestAmountOrder = new AtomicReference<>();
+  private DateIndex[] categoryIndexes = new DateIndex[0];
+  private boolean bulkLoading;
+
+  private final StampedLock totalsLock = new StampedLock();
+  private RollupCube rollup = new RollupCube();
+  private RollupCube dayRollup = new RollupCube();
+
+  private String[] categoryNames = new String[0];
+  private final Map<String, Integer> categoryIds = new ConcurrentHashMap<>();
+
+  // Versions start from the clock, so versions handed out by an earlier process are never
+  // mistaken for versions of this one
+  private long version = System.currentTimeMillis() * 1000;
+  private final ChangeJournal journal = new ChangeJournal(ChangeJournal.DEFAULT_CAPACITY, version);
+  private volatile ExpenseSnapshot current;
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  public ExpenseStore() {
+    publish();
+  }
+
+  /**
+   * Converts an amount to whole cents.
+   *
+   * @param amount The amount.
+   * @return The amount in cents, rounded to the nearest cent.
+   */
+  public static long toCents(double amount) {
+    return Math.round(amount * 100);
+  }
+
+  /**
+   * Converts an amount in cents back to a decimal amount.
+   *
+   * @param cents The amount in cents.
+   * @return The amount.
+   */
+  public static double fromCents(long cents) {
+    return cents / 100.0;
+  }
+
+  /**
+   * Returns the latest published snapshot. Taking a snapshot never blocks.
+   *
+   * @return The current snapshot.
+   */
+  public ExpenseSnapshot snapshot() {
+    return current;
+  }
+
+  /**
+   * Adds an expense as a new row.
+   *
+   * @param expense The expense to add.
+   * @return The id of the new expense.
+   * @throws IllegalArgumentException If the expense date cannot be parsed.
+   */
+  public synchronized int add(Expense expense) {
+    int epochDay = expense.getEpochDay();
+    if (epochDay == ExpenseDates.INVALID) {
+      throw new IllegalArgumentException("Invalid date: " + expense.getDate());
+    }
+    return add(epochDay, toCents(expense.getAmount()), internCategory(expense.getCategory()));
+  }
+
+  /**
+   * Adds a row.
+   *
+   * @param epochDay    The date as days since 1970-01-01.
+   * @param amountCents The amount in cents.
+   * @param categoryId  The category id from {@link #internCategory(String)}.
+   * @return The id of the new expense.
+   */
+  public synchronized int add(int epochDay, long amountCents, int categoryId) {
+    int id = nextId++;
+    int row = appendRow(epochDay, amountCents, categoryId, id);
+    if (!bulkLoading) {
+      journal(ChangeJournal.Kind.ADD, id, row, -1, null);
+      liveRows++;
+      dateIndex.add(epochDay, row);
+      categoryIndexes[categoryId].add(epochDay, row);
+      long stamp = totalsLock.writeLock();
+      try {
+        rollup.add(categoryId, ExpenseDates.monthOf(epochDay), amountCents);
+        dayRollup.add(categoryId, epochDay, amountCents);
+      } finally {
+        totalsLock.unlockWrite(stamp);
+      }
+      publish();
+    }
+    return id;
+  }
+
+  /**
+   * Adds a batch of expenses as new rows. The date indexes are updated with one merge per index,
+   * the totals under one write lock, and a single snapshot is published, so readers see either
+   * none or all of the batch.
+   *
+   * @param expenses The expenses to add, in order.
+   * @return The id of the first new expense; the others follow in order.
+   * @throws IllegalArgumentException If an expense date cannot be parsed; nothing is added.
+   */
+  public synchronized int addAll(List<Expense> expenses) {
+    int count = expenses.size();
+    int[] days = new int[count];
+    for (int i = 0; i < count; i++) {
+      days[i] = expenses.get(i).getEpochDay();
+      if (days[i] == ExpenseDates.INVALID) {
+        throw new IllegalArgumentException("Invalid date: " + expenses.get(i).getDate());
+      }
+    }
+
+    int first = size;
+    int firstId = nextId;
+    for (int i = 0; i < count; i++) {
+      Expense expense = expenses.get(i);
+      appendRow(days[i], toCents(expense.getAmount()), internCategory(expense.getCategory()),
+          nextId++);
+    }
+    if (bulkLoading || count == 0) {
+      return firstId;
+    }
+    for (int i = 0; i < count; i++) {
+      journal(ChangeJournal.Kind.ADD, firstId + i, first + i, -1, null);
+    }
+    liveRows += count;
+
+    // Order the batch by day, then by row, with the same packed sort as a bulk load
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = ((long) days[i] << 32) | (first + i);
+    }
+    Arrays.sort(keys);
+
+    int[] sortedDays = new int[count];
+    int[] sortedRows = new int[count];
+    int[] categoryCounts = new int[categoryNames.length];
+    for (int i = 0; i < count; i++) {
+      sortedDays[i] = (int) (keys[i] >> 32);
+      sortedRows[i] = (int) keys[i];
+      categoryCounts[categoryAt(sortedRows[i])]++;
+    }
+    dateIndex.addAll(sortedDays, sortedRows, count);
+
+    // Split the sorted batch per category, keeping the order
+    int[][] categoryDays = new int[categoryCounts.length][];
+    int[][] categoryRows = new int[categoryCounts.length][];
+    int[] filled = new int[categoryCounts.length];
+    for (int id = 0; id < categoryCounts.length; id++) {
+      if (categoryCounts[id] > 0) {
+        categoryDays[id] = new int[categoryCounts[id]];
+        categoryRows[id] = new int[categoryCounts[id]];
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      int id = categoryAt(sortedRows[i]);
+      categoryDays[id][filled[id]] = sortedDays[i];
+      categoryRows[id][filled[id]++] = sortedRows[i];
+    }
+    for (int id = 0; id < categoryCounts.length; id++) {
+      if (categoryCounts[id] > 0) {
+        categoryIndexes[id].addAll(categoryDays[id], categoryRows[id], categoryCounts[id]);
+      }
+    }
+
+    long stamp = totalsLock.writeLock();
+    try {
+      for (int i = 0; i < count; i++) {
+        int row = first + i;
+        long cents = centChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        rollup.add(categoryAt(row), ExpenseDates.monthOf(days[i]), cents);
+        dayRollup.add(categoryAt(row), days[i], cents);
+      }
+    } finally {
+      totalsLock.unlockWrite(stamp);
+    }
+    publish();
+    return firstId;
+  }
+
+  /**
+   * Uses up the next id without adding an expense, for a logged expense that cannot be loaded.
+   */
+  public synchronized void skipId() {
+    nextId++;
+  }
+
+  /**
+   * Returns whether an expense with the given id exists and has not been deleted.
+   *
+   * @param id The expense id.
+   * @return True if the expense exists.
+   */
+  public synchronized boolean contains(int id) {
+    return rowOf(id) >= 0;
+  }
+
+  /**
+   * Deletes an expense. Its row is retired, which turns its date index entries into tombstones,
+   * and its amount is subtracted from the totals; snapshots taken earlier still see it.
+   *
+   * @param id The expense id.
+   * @return True if the expense existed.
+   */
+  public synchronized boolean remove(int id) {
+    int row = rowOf(id);
+    if (row < 0) {
+      return false;
+    }
+    retire(row);
+    setSlot(id, 0);
+    if (!bulkLoading) {
+      journal(ChangeJournal.Kind.DELETE, id, -1, row, null);
+      int epochDay = dayAt(row);
+      int categoryId = categoryAt(row);
+      long amountCents = centsAt(row);
+      liveRows--;
+      dateIndex.remove();
+      categoryIndexes[categoryId].remove();
+      long stamp = totalsLock.writeLock();
+      try {
+        removeFromRollup(epochDay, amountCents, categoryId);
+      } finally {
+        totalsLock.unlockWrite(stamp);
+      }
+      publish();
+    }
+    return true;
+  }
+
+  /**
+   * Replaces an expense. The old row is retired and a new row with the same id is added; the
+   * indexes and totals move from one to the other in a single published change.
+   *
+   * @param id      The expense id.
+   * @param expense The new values.
+   * @return True if the expense existed.
+   * @throws IllegalArgumentException If the expense date cannot be parsed.
+   */
+  public synchronized boolean update(int id, Expense expense) {
+    int epochDay = expense.getEpochDay();
+    if (epochDay == ExpenseDates.INVALID) {
+      throw new IllegalArgumentException("Invalid date: " + expense.getDate());
+    }
+    int oldRow = rowOf(id);
+    if (oldRow < 0) {
+      return false;
+    }
+    long amountCents = toCents(expense.getAmount());
+    int categoryId = internCategory(expense.getCategory());
+    retire(oldRow);
+    int row = appendRow(epochDay, amountCents, categoryId, id);
+    if (!bulkLoading) {
+      journal(ChangeJournal.Kind.UPDATE, id, row, oldRow, null);
+      int oldDay = dayAt(oldRow);
+      int oldCategoryId = categoryAt(oldRow);
+      long oldCents = centsAt(oldRow);
+      dateIndex.remove();
+      categoryIndexes[oldCategoryId].remove();
+      dateIndex.add(epochDay, row);
+      categoryIndexes[categoryId].add(epochDay, row);
+      long stamp = totalsLock.writeLock();
+      try {
+        removeFromRollup(oldDay, oldCents, oldCategoryId);
+        rollup.add(categoryId, ExpenseDates.monthOf(epochDay), amountCents);
+        dayRollup.add(categoryId, epochDay, amountCents);
+      } finally {
+        totalsLock.unlockWrite(stamp);
+      }
+      publish();
+    }
+    return true;
+  }
+
+  /**
+   * Records that a category was added to or removed from the category list, so clients syncing
+   * changes see it. Publishes a new version.
+   *
+   * @param category The category name.
+   * @param added    True if the category was added, false if it was removed.
+   */
+  public synchronized void categoryChanged(String category, boolean added) {
+    journal(added ? ChangeJournal.Kind.CATEGORY_ADD : ChangeJournal.Kind.CATEGORY_REMOVE, 0, -1,
+        -1, category);
+    publish();
+  }
+
+  /**
+   * Returns the changes published after a version and visible in a snapshot.
+   *
+   * @param version  The version the client holds.
+   * @param snapshot The snapshot the client will read the changed rows from.
+   * @return The changes, oldest first, or null if the client must download everything again.
+   */
+  public List<ChangeJournal.Change> changesSince(long version, ExpenseSnapshot snapshot) {
+    return journal.since(version, snapshot.version());
+  }
+
+  /**
+   * Registers a listener that runs on the writer thread after every published change. Listeners
+   * must return quickly, typically by handing the work to another thread.
+   *
+   * @param listener The listener.
+   */
+  public void addChangeListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  private void journal(ChangeJournal.Kind kind, int id, int row, int oldRow, String category) {
+    journal.record(new ChangeJournal.Change(version + 1, kind, id, row, oldRow, category));
+  }
+
+  private int appendRow(int epochDay, long amountCents, int categoryId, int id) {
+    int row = size;
+    int chunk = row >>> CHUNK_SHIFT;
+    if (chunk == dayChunks.length) {
+      dayChunks = Arrays.copyOf(dayChunks, chunk + 1);
+      centChunks = Arrays.copyOf(centChunks, chunk + 1);
+      categoryChunks = Arrays.copyOf(categoryChunks, chunk + 1);
+      idChunks = Arrays.copyOf(idChunks, chunk + 1);
+      retiredChunks = Arrays.copyOf(retiredChunks, chunk + 1);
+      dayChunks[chunk] = new int[CHUNK_SIZE];
+      centChunks[chunk] = new long[CHUNK_SIZE];
+      categoryChunks[chunk] = new int[CHUNK_SIZE];
+      idChunks[chunk] = new int[CHUNK_SIZE];
+      retiredChunks[chunk] = new long[CHUNK_SIZE];
+    }
+    int offset = row & CHUNK_MASK;
+    dayChunks[chunk][offset] = epochDay;
+    centChunks[chunk][offset] = amountCents;
+    categoryChunks[chunk][offset] = categoryId;
+    idChunks[chunk][offset] = id;
+    size = row + 1;
+    setSlot(id, row + 1);
+    return row;
+  }
+
+  /**
+   * Marks a row as retired from the next published version on. Older snapshots compare the mark
+   * with their own version, so they keep seeing the row.
+   */
+  private void retire(int row) {
+    retiredChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = version + 1;
+  }
+
+  private int rowOf(int id) {
+    int chunk = id >>> CHUNK_SHIFT;
+    if (id <= 0 || chunk >= slotChunks.length) {
+      return -1;
+    }
+    return slotChunks[chunk][id & CHUNK_MASK] - 1;
+  }
+
+  private void setSlot(int id, int slot) {
+    int chunk = id >>> CHUNK_SHIFT;
+    if (chunk >= slotChunks.length) {
+      int length = slotChunks.length;
+      slotChunks = Arrays.copyOf(slotChunks, chunk + 1);
+      for (int i = length; i <= chunk; i++) {
+        slotChunks[i] = new int[CHUNK_SIZE];
+      }
+    }
+    slotChunks[chunk][id & CHUNK_MASK] = slot;
+  }
+
+  private boolean isRetired(int row) {
+    return retiredChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK] != 0;
+  }
+
+  private int dayAt(int row) {
+    return dayChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+  }
+
+  private long centsAt(int row) {
+    return centChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+  }
+
+  private int categoryAt(int row) {
+    return categoryChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+  }
+
+  /**
+   * Subtracts a row from the month and day rollups. If it held a cell's minimum or maximum, the
+   * cell's other rows are read from the category's date index, skipping retired rows; the row must
+   * already be retired. Called under the totals write lock.
+   */
+  private void removeFromRollup(int epochDay, long amountCents, int categoryId) {
+    int month = ExpenseDates.monthOf(epochDay);
+    if (rollup.remove(categoryId, month, amountCents)) {
+      long[] extremes = extremes(categoryId, ExpenseDates.firstDayOfMonth(month), ExpenseDates.lastDayOfMonth(month));
+      rollup.setExtremes(categoryId, month, extremes[0], extremes[1]);
+    }
+    if (dayRollup.remove(categoryId, epochDay, amountCents)) {
+      long[] extremes = extremes(categoryId, epochDay, epochDay);
+      dayRollup.setExtremes(categoryId, epochDay, extremes[0], extremes[1]);
+    }
+  }
+
+  /**
+   * Returns the smallest and largest amount of the current rows of a category in a date range.
+   */
+  private long[] extremes(int categoryId, int fromDay, int toDay) {
+    DateIndex.View index = categoryIndexes[categoryId].view();
+    int end = index.upperBound(toDay);
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int position = index.lowerBound(fromDay); position < end; position++) {
+      int row = index.row(position);
+      if (isRetired(row)) {
+        continue;
+      }
+      long cents = centsAt(row);
+      min = Math.min(min, cents);
+      max = Math.max(max, cents);
+    }
+    return new long[] {min, max};
+  }
+
+  /**
+   * Stops maintaining the date indexes and totals until {@link #endBulkLoad()}, so loading a
+   * large ledger sorts once instead of inserting rows one at a time. Rows added in between are
+   * not visible to snapshots until the bulk load ends.
+   */
+  public synchronized void beginBulkLoad() {
+    bulkLoading = true;
+  }
+
+  /**
+   * Rebuilds the date indexes and totals from all rows, publishes them and resumes incremental
+   * maintenance.
+   */
+  public synchronized void endBulkLoad() {
+    // Pack (day, row) into one long so a single primitive sort orders by day, then by row
+    // Deleted and replaced rows are left out
+    long[] keys = new long[size];
+    int count = 0;
+    for (int row = 0; row < size; row++) {
+      if (!isRetired(row)) {
+        keys[count++] = ((long) dayAt(row) << 32) | row;
+      }
+    }
+    keys = Arrays.copyOf(keys, count);
+    Arrays.sort(keys);
+
+    DateIndex newDateIndex = new DateIndex(this::isRetired);
+    DateIndex[] newCategoryIndexes = new DateIndex[categoryNames.length];
+    for (int id = 0; id < categoryNames.length; id++) {
+      newCategoryIndexes[id] = new DateIndex(this::isRetired);
+    }
+    for (long key : keys) {
+      int day = (int) (key >> 32);
+      int row = (int) key;
+      int categoryId = categoryChunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+      newDateIndex.add(day, row);
+      newCategoryIndexes[categoryId].add(day, row);
+    }
+
+    // Build the rollups from one pair of partial cubes per chunk of rows, merged in parallel
+    RollupCube[] newRollups = IntStream.range(0, (size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT).parallel()
+        .mapToObj(this::rollupChunk)
+        .reduce((a, b) -> new RollupCube[] {a[0].merge(b[0]), a[1].merge(b[1])})
+        .orElseGet(() -> new RollupCube[] {new RollupCube(), new RollupCube()});
+
+    dateIndex = newDateIndex;
+    liveRows = count;
+    categoryIndexes = newCategoryIndexes;
+    long stamp = totalsLock.writeLock();
+    try {
+      rollup = newRollups[0];
+      dayRollup = newRollups[1];
+    } finally {
+      totalsLock.unlockWrite(stamp);
+    }
+    bulkLoading = false;
+    publish();
+  }
+
+  /**
+   * Builds the month and the day cube of one chunk of rows.
+   */
+  private RollupCube[] rollupChunk(int chunk) {
+    RollupCube months = new RollupCube();
+    RollupCube days = new RollupCube();
+    int end = Math.min(size, (chunk + 1) << CHUNK_SHIFT);
+    for (int row = chunk << CHUNK_SHIFT; row < end; row++) {
+      if (!isRetired(row)) {
+        int day = dayAt(row);
+        months.add(categoryAt(row), ExpenseDates.monthOf(day), centsAt(row));
+        days.add(categoryAt(row), day, centsAt(row));
+      }
+    }
+    return new RollupCube[] {months, days};
+  }
+
+  /**
+   * Returns the id of a category, adding it to the dictionary if it is new.
+   *
+   * @param category The category name.
+   * @return The category id.
+   */
+  public synchronized int internCategory(String category) {
+    Integer id = categoryIds.get(category);
+    if (id == null) {
+      id = categoryNames.length;
+      categoryNames = Arrays.copyOf(categoryNames, id + 1);
+      categoryNames[id] = category;
+      categoryIndexes = Arrays.copyOf(categoryIndexes, id + 1);
+      categoryIndexes[id] = new DateIndex(this::isRetired);
+      categoryIds.put(category, id);
+    }
+    return id;
+  }
+
+  /**
+   * Aggregates the amounts of all rows in a range of months from the rollup, without visiting
+   * rows. Reflects the latest committed write, not a particular snapshot.
+   *
+   * @param fromMonth  The first month number from {@link ExpenseDates#monthOf(int)}, inclusive.
+   * @param toMonth    The last month number, inclusive.
+   * @param categoryId The category to include, or -1 for all categories.
+   * @return The sum, count, minimum and maximum in cents.
+   */
+  public RollupCube.Cell rollup(int fromMonth, int toMonth, int categoryId) {
+    return readTotals(() -> rollup.get(categoryId, fromMonth, toMonth));
+  }
+
+  /**
+   * Aggregates the amounts of all rows in a date range from the rollups, without visiting rows:
+   * day cells for the partial months at either end, month cells for the whole months between.
+   * Reflects the latest committed write, not a particular snapshot.
+   *
+   * @param fromDay    The first epoch day, inclusive.
+   * @param toDay      The last epoch day, inclusive.
+   * @param categoryId The category to include, or -1 for all categories.
+   * @return The sum, count, minimum and maximum in cents.
+   */
+  public RollupCube.Cell rollupDays(int fromDay, int toDay, int categoryId) {
+    int fromMonth = ExpenseDates.monthOf(fromDay);
+    int toMonth = ExpenseDates.monthOf(toDay);
+    int firstWhole = fromDay == ExpenseDates.firstDayOfMonth(fromMonth) ? fromMonth : fromMonth + 1;
+    int lastWhole = toDay == ExpenseDates.lastDayOfMonth(toMonth) ? toMonth : toMonth - 1;
+    if (firstWhole > lastWhole) {
+      // No whole month in the range, so it spans at most two partial months of days
+      return readTotals(() -> dayRollup.get(categoryId, fromDay, toDay));
+    }
+    return readTotals(() -> rollup.get(categoryId, firstWhole, lastWhole)
+        .merge(dayRollup.get(categoryId, fromDay, ExpenseDates.firstDayOfMonth(firstWhole) - 1))
+        .merge(dayRollup.get(categoryId, ExpenseDates.lastDayOfMonth(lastWhole) + 1, toDay)));
+  }
+
+  /**
+   * Reads the rollups with an optimistic read, falling back to the read lock if a write overlapped.
+   */
+  private RollupCube.Cell readTotals(Supplier<RollupCube.Cell> read) {
+    long stamp = totalsLock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        RollupCube.Cell cell = read.get();
+        if (totalsLock.validate(stamp)) {
+          return cell;
+        }
+      } catch (RuntimeException e) {
+        // A concurrent write moved the arrays underneath us; retry under the read lock
+      }
+    }
+    stamp = totalsLock.readLock();
+    try {
+      return read.get();
+    } finally {
+      totalsLock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Publishes a new snapshot of the current rows and indexes. Called by the writer after every
+   * change.
+   */
+  private void publish() {
+    DateIndex.View[] categoryViews = new DateIndex.View[categoryIndexes.length];
+    for (int id = 0; id < categoryViews.length; id++) {
+      categoryViews[id] = categoryIndexes[id].view();
+    }
+    current = new ExpenseSnapshot(++version, size, liveRows, dayChunks, centChunks, categoryChunks, idChunks,
+        retiredChunks, categoryNames, categoryIds, dateIndex.view(), categoryViews,
+        latestAmountOrder);
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+}
@@ -0,0 +1,529 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The {@code group-by} report: sum, count, average, minimum and maximum of the expenses per period
+ * and category over a date range.
+ *
+ * <p>The response is a dense series ready for charting, with one label per period, including
+ * periods without expenses, and one array per statistic:
+ * <pre>
+ * {"type": "group-by", "bucket": "month", "startDate": "2024-01-01", "endDate": "2024-03-31",
+ *  "labels": ["2024-01", "2024-02", "2024-03"], "starts": ["2024-01-01", ...],
+ *  "series": [{"category": "Food", "sum": [...], "count": [...], "average": [...],
+ *              "min": [...], "max": [...]}],
+ *  "total": {"sum": [...], ...}}
+ * </pre>
+ * Average, minimum and maximum are null for periods without expenses.
+ *
+ * <p>Periods are read from the store's day and month {@link RollupCube}s without visiting rows
+ * when that reads fewer cells than the range has index positions, which covers long ranges and
+ * sparse categories alike. Other reports make a single pass over the date index, split into date
+ * partitions by the {@link ReportEngine} when the range is wide.
+ */
+public final class GroupByReport {
+    public static final int MAX_BUCKETS = Integer.getInteger("server.reports.maxBuckets", 10000);
+
+    /**
+     * Periods expenses can be grouped by. Each period has a number; consecutive periods have
+     * consecutive numbers.
+     */
+    public enum Bucket {
+        DAY, WEEK, MONTH, QUARTER, YEAR;
+
+        /**
+         * Parses a bucket name, ignoring case.
+         *
+         * @param name The name, for example {@code "month"}.
+         * @return The bucket.
+         * @throws IllegalArgumentException If the name is missing or unknown.
+         */
+        public static Bucket parse(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("Missing bucket");
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid bucket: " + name);
+            }
+        }
+
+        /**
+         * Returns the number of the period a day falls in.
+         *
+         * @param epochDay The epoch day.
+         * @return The period number.
+         */
+        public int of(int epochDay) {
+            return switch (this) {
+                case DAY -> epochDay;
+                // Weeks start on Monday; epoch day 0 was a Thursday
+                case WEEK -> Math.floorDiv(epochDay + 3, 7);
+                case MONTH -> ExpenseDates.monthOf(epochDay);
+                case QUARTER -> Math.floorDiv(ExpenseDates.monthOf(epochDay), 3);
+                case YEAR -> Math.floorDiv(ExpenseDates.monthOf(epochDay), 12);
+            };
+        }
+
+        /**
+         * Returns the first epoch day of a period.
+         *
+         * @param bucket The period number.
+         * @return The epoch day.
+         */
+        public int firstDay(int bucket) {
+            return switch (this) {
+                case DAY -> bucket;
+                case WEEK -> bucket * 7 - 3;
+                case MONTH -> ExpenseDates.firstDayOfMonth(bucket);
+                case QUARTER -> ExpenseDates.firstDayOfMonth(bucket * 3);
+                case YEAR -> ExpenseDates.firstDayOfMonth(bucket * 12);
+            };
+        }
+
+        /**
+         * Returns the last epoch day of a period.
+         *
+         * @param bucket The period number.
+         * @return The epoch day.
+         */
+        public int lastDay(int bucket) {
+            return firstDay(bucket + 1) - 1;
+        }
+
+        /**
+         * Returns the label of a period: the date of a day or of the Monday of a week,
+         * {@code 2024-03}, {@code 2024-Q1} or {@code 2024}.
+         *
+         * @param bucket The period number.
+         * @return The label.
+         */
+        public String label(int bucket) {
+            return switch (this) {
+                case DAY, WEEK -> ExpenseDates.toIsoString(firstDay(bucket));
+                case MONTH -> String.format("%04d-%02d", Math.floorDiv(bucket, 12), Math.floorMod(bucket, 12) + 1);
+                case QUARTER -> String.format("%04d-Q%d", Math.floorDiv(bucket, 4), Math.floorMod(bucket, 4) + 1);
+                case YEAR -> String.format("%04d", bucket);
+            };
+        }
+
+        /**
+         * Returns the number of rollup cells read for one whole period.
+         */
+        int rollupCells() {
+            return switch (this) {
+                case DAY, MONTH -> 1;
+                case WEEK -> 7;
+                case QUARTER -> 3;
+                case YEAR -> 12;
+            };
+        }
+    }
+
+    private final Bucket bucket;
+    private final int fromDay;
+    private final int toDay;
+    // The range whose expenses can change the report; open ends follow the first and last expense
+    private final int coveredFromDay;
+    private final int coveredToDay;
+    private final int firstBucket;
+    private final int bucketCount;
+    // Category ids of the series, in output order; -1 for a requested category that does not exist
+    private final int[] seriesCategories;
+    private final String[] seriesNames;
+    private final boolean filtered;
+
+    private GroupByReport(Bucket bucket, int fromDay, int toDay, int coveredFromDay, int coveredToDay,
+                          int[] seriesCategories, String[] seriesNames, boolean filtered) {
+        this.bucket = bucket;
+        this.fromDay = fromDay;
+        this.toDay = toDay;
+        this.coveredFromDay = coveredFromDay;
+        this.coveredToDay = coveredToDay;
+        this.seriesCategories = seriesCategories;
+        this.seriesNames = seriesNames;
+        this.filtered = filtered;
+        this.firstBucket = fromDay <= toDay ? bucket.of(fromDay) : 0;
+        this.bucketCount = fromDay <= toDay ? bucket.of(toDay) - firstBucket + 1 : 0;
+    }
+
+    /**
+     * Validates a request and resolves its range and categories against a snapshot. A missing
+     * start or end date defaults to the first or last expense.
+     *
+     * @param request  The request.
+     * @param snapshot The snapshot the report is built from.
+     * @return The report.
+     * @throws IllegalArgumentException If the bucket or a date is invalid, or there would be more
+     *                                  than {@link #MAX_BUCKETS} periods.
+     */
+    public static GroupByReport of(ReportRequest request, ExpenseSnapshot snapshot) {
+        Bucket bucket = Bucket.parse(request.bucket());
+        int fromDay = parseDay(request.startDate(), "start");
+        int toDay = parseDay(request.endDate(), "end");
+        int coveredFromDay = fromDay == ExpenseDates.INVALID ? Integer.MIN_VALUE : fromDay;
+        int coveredToDay = toDay == ExpenseDates.INVALID ? Integer.MAX_VALUE : toDay;
+        if (snapshot.size() > 0) {
+            ExpenseSnapshot.SortOrder ascending = ExpenseSnapshot.SortOrder.DATE_ASC;
+            ExpenseSnapshot.SortOrder descending = ExpenseSnapshot.SortOrder.DATE_DESC;
+            int first = snapshot.epochDay(snapshot.rowAt(ascending, snapshot.nextCurrent(ascending, 0)));
+            int last = snapshot.epochDay(snapshot.rowAt(descending, snapshot.nextCurrent(descending, 0)));
+            fromDay = fromDay == ExpenseDates.INVALID ? first : fromDay;
+            toDay = toDay == ExpenseDates.INVALID ? last : toDay;
+        } else if (fromDay == ExpenseDates.INVALID || toDay == ExpenseDates.INVALID) {
+            // Nothing to report and no range to lay out
+            fromDay = 0;
+            toDay = -1;
+        }
+        if (fromDay <= toDay && (long) bucket.of(toDay) - bucket.of(fromDay) >= MAX_BUCKETS) {
+            throw new IllegalArgumentException("Too many " + bucket.name().toLowerCase(Locale.ROOT)
+                    + " buckets; narrow the date range");
+        }
+
+        List<String> names = request.categories();
+        boolean filtered = names != null && !names.isEmpty();
+        if (filtered) {
+            names = new ArrayList<>(new LinkedHashSet<>(names));
+        } else {
+            // One series per category, dropped later if it has no expenses in the range
+            names = snapshot.getCategoryNames();
+        }
+        int[] categoryIds = new int[names.size()];
+        for (int i = 0; i < categoryIds.length; i++) {
+            categoryIds[i] = snapshot.categoryId(names.get(i));
+        }
+        return new GroupByReport(bucket, fromDay, toDay, coveredFromDay, coveredToDay, categoryIds,
+                names.toArray(new String[0]), filtered);
+    }
+
+    private static int parseDay(String date, String which) {
+        if (date == null || date.isBlank()) {
+            return ExpenseDates.INVALID;
+        }
+        int day = ExpenseDates.toEpochDay(date);
+        if (day == ExpenseDates.INVALID) {
+            throw new IllegalArgumentException("Invalid " + which + " date: " + date);
+        }
+        return day;
+    }
+
+    /**
+     * Returns the first day whose expenses can change the report.
+     *
+     * @return The epoch day, or {@link Integer#MIN_VALUE} if the report starts at the first expense.
+     */
+    public int coveredFromDay() {
+        return coveredFromDay;
+    }
+
+    /**
+     * Returns the last day whose expenses can change the report.
+     *
+     * @return The epoch day, or {@link Integer#MAX_VALUE} if the report ends at the last expense.
+     */
+    public int coveredToDay() {
+        return coveredToDay;
+    }
+
+    /**
+     * Returns the only category the report depends on, or -1 if it depends on several.
+     *
+     * @return The category id or -1.
+     */
+    public int categoryId() {
+        return filtered && seriesCategories.length == 1 ? seriesCategories[0] : -1;
+    }
+
+    /**
+     * Computes the report and encodes it as JSON.
+     *
+     * @param store    The store, whose rollup answers reports that would scan more rows.
+     * @param snapshot The snapshot other reports scan.
+     * @return The response body.
+     */
+    public byte[] render(ExpenseStore store, ExpenseSnapshot snapshot) throws IOException {
+        Stats[] series = new Stats[seriesCategories.length];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = new Stats(bucketCount);
+        }
+        if (bucketCount > 0) {
+            if (rollupCells() <= scannedPositions(snapshot)) {
+                fromRollup(store, series);
+            } else {
+                scan(snapshot, series);
+            }
+        }
+
+        Stats total = new Stats(bucketCount);
+        for (Stats stats : series) {
+            total.merge(stats, 0);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(body)) {
+            json.beginObject();
+            json.name("type").value("group-by");
+            json.name("bucket").value(bucket.name().toLowerCase(Locale.ROOT));
+            json.name("startDate").value(bucketCount > 0 ? ExpenseDates.toIsoString(fromDay) : null);
+            json.name("endDate").value(bucketCount > 0 ? ExpenseDates.toIsoString(toDay) : null);
+            json.name("labels").beginArray();
+            for (int i = 0; i < bucketCount; i++) {
+                json.value(bucket.label(firstBucket + i));
+            }
+            json.endArray();
+            json.name("starts").beginArray();
+            for (int i = 0; i < bucketCount; i++) {
+                json.value(ExpenseDates.toIsoString(Math.max(fromDay, bucket.firstDay(firstBucket + i))));
+            }
+            json.endArray();
+            json.name("series").beginArray();
+            for (int i = 0; i < series.length; i++) {
+                // Without a filter, only categories with expenses in the range get a series
+                if (filtered || series[i].any()) {
+                    json.beginObject();
+                    json.name("category").value(seriesNames[i]);
+                    series[i].write(json);
+                    json.endObject();
+                }
+            }
+            json.endArray();
+            json.name("total").beginObject();
+            total.write(json);
+            json.endObject();
+            json.endObject();
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Returns roughly how many rollup cells {@link #fromRollup(ExpenseStore, Stats[])} reads. A
+     * partial month at either end of the range may read up to a month of day cells instead of one
+     * month cell.
+     */
+    private long rollupCells() {
+        long series = 0;
+        for (int categoryId : seriesCategories) {
+            if (categoryId >= 0) {
+                series++;
+            }
+        }
+        return series * bucketCount * bucket.rollupCells();
+    }
+
+    /**
+     * Returns the number of date index positions {@link #scan(ExpenseSnapshot, Stats[])} visits.
+     */
+    private long scannedPositions(ExpenseSnapshot snapshot) {
+        if (!filtered) {
+            return snapshot.positionsInDateRange(fromDay, toDay, -1);
+        }
+        long positions = 0;
+        for (int categoryId : seriesCategories) {
+            if (categoryId >= 0) {
+                positions += snapshot.positionsInDateRange(fromDay, toDay, categoryId);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Reads every period and category from the rollup: day cells for partial months, month cells
+     * for the whole months in between. The first and last period are clipped to the range.
+     */
+    private void fromRollup(ExpenseStore store, Stats[] series) {
+        for (int i = 0; i < seriesCategories.length; i++) {
+            if (seriesCategories[i] < 0) {
+                continue;
+            }
+            for (int b = 0; b < bucketCount; b++) {
+                int from = Math.max(fromDay, bucket.firstDay(firstBucket + b));
+                int to = Math.min(toDay, bucket.lastDay(firstBucket + b));
+                series[i].set(b, store.rollupDays(from, to, seriesCategories[i]));
+            }
+        }
+    }
+
+    /**
+     * Aggregates the matching rows in one pass over the date index, or over the index of each
+     * requested category. Wide ranges are split into date partitions aggregated in parallel; each
+     * partition only holds the periods it spans.
+     */
+    private void scan(ExpenseSnapshot snapshot, Stats[] series) {
+        // Series of each category id, -1 for categories that are not reported
+        int[] seriesOf = new int[snapshot.getCategoryNames().size()];
+        Arrays.fill(seriesOf, -1);
+        for (int i = 0; i < seriesCategories.length; i++) {
+            if (seriesCategories[i] >= 0) {
+                seriesOf[seriesCategories[i]] = i;
+            }
+        }
+
+        int[] scanned = filtered ? seriesCategories : new int[] {-1};
+        for (int categoryId : scanned) {
+            if (filtered && categoryId < 0) {
+                continue;
+            }
+            Partial partial = snapshot.aggregateDateRange(fromDay, toDay, categoryId,
+                    new ReportEngine.Aggregation<>() {
+                        @Override
+                        public Partial aggregate(ReportEngine.Partition partition) {
+                            if (partition.size() == 0) {
+                                return null;
+                            }
+                            Partial partial = new Partial(bucket.of(partition.firstDay()),
+                                    bucket.of(partition.lastDay()), series.length);
+                            // Rows come in date order, so the period only changes when a row passes its last day
+                            int[] current = {partial.first, bucket.lastDay(partial.first)};
+                            partition.scan((row, epochDay, amountCents, rowCategoryId) -> {
+                                if (epochDay > current[1]) {
+                                    current[0] = bucket.of(epochDay);
+                                    current[1] = bucket.lastDay(current[0]);
+                                }
+                                partial.series[seriesOf[rowCategoryId]].add(current[0] - partial.first, amountCents);
+                            });
+                            return partial;
+                        }
+
+                        @Override
+                        public Partial merge(Partial earlier, Partial later) {
+                            if (earlier == null || later == null) {
+                                return earlier == null ? later : earlier;
+                            }
+                            return earlier.merge(later);
+                        }
+                    });
+            if (partial != null) {
+                for (int i = 0; i < series.length; i++) {
+                    series[i].merge(partial.series[i], partial.first - firstBucket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Statistics of every series over the periods {@code [first, last]} of one date partition.
+     */
+    private static final class Partial {
+        final int first;
+        final int last;
+        final Stats[] series;
+
+        Partial(int first, int last, int seriesCount) {
+            this.first = first;
+            this.last = last;
+            this.series = new Stats[seriesCount];
+            for (int i = 0; i < seriesCount; i++) {
+                series[i] = new Stats(last - first + 1);
+            }
+        }
+
+        /**
+         * Combines this partition with a later one; they share at most one period.
+         */
+        Partial merge(Partial later) {
+            Partial both = new Partial(first, later.last, series.length);
+            for (int i = 0; i < series.length; i++) {
+                both.series[i].merge(series[i], 0);
+                both.series[i].merge(later.series[i], later.first - first);
+            }
+            return both;
+        }
+    }
+
+    /**
+     * Statistics of one series, one slot per period.
+     */
+    private static final class Stats {
+        final long[] sum;
+        final long[] count;
+        final long[] min;
+        final long[] max;
+
+        Stats(int buckets) {
+            sum = new long[buckets];
+            count = new long[buckets];
+            min = new long[buckets];
+            max = new long[buckets];
+            Arrays.fill(min, Long.MAX_VALUE);
+            Arrays.fill(max, Long.MIN_VALUE);
+        }
+
+        void add(int i, long cents) {
+            sum[i] += cents;
+            count[i]++;
+            min[i] = Math.min(min[i], cents);
+            max[i] = Math.max(max[i], cents);
+        }
+
+        void set(int i, RollupCube.Cell cell) {
+            sum[i] = cell.sumCents();
+            count[i] = cell.count();
+            min[i] = cell.minCents();
+            max[i] = cell.maxCents();
+        }
+
+        /**
+         * Adds the statistics of another series whose first period is this series' period
+         * {@code offset}.
+         */
+        void merge(Stats other, int offset) {
+            for (int i = 0; i < other.sum.length; i++) {
+                sum[i + offset] += other.sum[i];
+                count[i + offset] += other.count[i];
+                min[i + offset] = Math.min(min[i + offset], other.min[i]);
+                max[i + offset] = Math.max(max[i + offset], other.max[i]);
+            }
+        }
+
+        boolean any() {
+            for (long c : count) {
+                if (c > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void write(JsonWriter json) throws IOException {
+            json.name("sum").beginArray();
+            for (long cents : sum) {
+                json.value(ExpenseStore.fromCents(cents));
+            }
+            json.endArray();
+            json.name("count").beginArray();
+            for (long c : count) {
+                json.value(c);
+            }
+            json.endArray();
+            json.name("average").beginArray();
+            for (int i = 0; i < sum.length; i++) {
+                writeOrNull(json, count[i] > 0, (double) sum[i] / count[i] / 100.0);
+            }
+            json.endArray();
+            json.name("min").beginArray();
+            for (int i = 0; i < sum.length; i++) {
+                writeOrNull(json, count[i] > 0, ExpenseStore.fromCents(min[i]));
+            }
+            json.endArray();
+            json.name("max").beginArray();
+            for (int i = 0; i < sum.length; i++) {
+                writeOrNull(json, count[i] > 0, ExpenseStore.fromCents(max[i]));
+            }
+            json.endArray();
+        }
+
+        private static void writeOrNull(JsonWriter json, boolean present, double value) throws IOException {
+            if (present) {
+                json.value(value);
+            } else {
+                json.value((String) null);
+            }
+        }
+    }
+}
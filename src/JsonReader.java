@@ -0,0 +1,559 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming pull parser for JSON request bodies.
+ *
+ * <p>Tokens are read one at a time from the stream, so a body is parsed in a single pass without
+ * first being collected into a string. Values are bound by the caller:
+ * <pre>
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *     switch (reader.nextName()) {
+ *         case "amount" -> amount = reader.nextDouble();
+ *         default -> reader.skipValue();
+ *     }
+ * }
+ * reader.endObject();
+ * </pre>
+ *
+ * <p>Malformed input throws {@link IllegalArgumentException}. A body longer than the limit
+ * throws {@link BodyTooLargeException} as soon as the limit is crossed.
+ */
+public class JsonReader implements Closeable {
+    public static final int MAX_BODY_BYTES = Integer.getInteger("server.maxBodyBytes", 1024 * 1024);
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * Kinds of tokens returned by {@link #peek()}.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /**
+     * Thrown when a request body exceeds the size limit.
+     */
+    public static class BodyTooLargeException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        public BodyTooLargeException(long limit) {
+            super("Request body exceeds " + limit + " bytes");
+        }
+    }
+
+    // What the parser expects next in each open scope
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[1024];
+    private int position;
+    private int limit;
+    private final StringBuilder text = new StringBuilder();
+
+    private final int[] stack = new int[MAX_DEPTH];
+    private int depth;
+    private Token peeked;
+
+    /**
+     * Creates a reader over a UTF-8 stream.
+     *
+     * @param stream   The stream.
+     * @param maxBytes The most bytes to read before failing with {@link BodyTooLargeException}.
+     */
+    public JsonReader(InputStream stream, long maxBytes) {
+        this(new InputStreamReader(new LimitedInputStream(stream, maxBytes), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a reader over a string, such as one line of an NDJSON body.
+     *
+     * @param json The JSON text.
+     */
+    public JsonReader(String json) {
+        this(new StringReader(json));
+    }
+
+    private JsonReader(Reader in) {
+        this.in = in;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Creates a reader over a request body, limited to {@link #MAX_BODY_BYTES}. A body whose
+     * declared length is already over the limit is rejected without reading it.
+     *
+     * @param exchange The exchange.
+     * @return The reader.
+     */
+    public static JsonReader forRequest(HttpExchange exchange) {
+        checkDeclaredLength(exchange, MAX_BODY_BYTES);
+        return new JsonReader(exchange.getRequestBody(), MAX_BODY_BYTES);
+    }
+
+    /**
+     * Returns a request body that fails with {@link BodyTooLargeException} after a number of
+     * bytes.
+     *
+     * @param exchange The exchange.
+     * @param maxBytes The limit.
+     * @return The body stream.
+     */
+    public static InputStream limitedBody(HttpExchange exchange, long maxBytes) {
+        checkDeclaredLength(exchange, maxBytes);
+        return new LimitedInputStream(exchange.getRequestBody(), maxBytes);
+    }
+
+    private static void checkDeclaredLength(HttpExchange exchange, long maxBytes) {
+        String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (declared != null) {
+            try {
+                if (Long.parseLong(declared.trim()) > maxBytes) {
+                    throw new BodyTooLargeException(maxBytes);
+                }
+            } catch (NumberFormatException e) {
+                // Let the stream limit catch it
+            }
+        }
+    }
+
+    /**
+     * Returns the kind of the next token without consuming it.
+     *
+     * @return The next token.
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != -1) {
+                    position--;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[depth - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespace() == -1) {
+                    return peeked = Token.END_DOCUMENT;
+                }
+                throw syntaxError("Unexpected data after the document");
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                position--;
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                position--;
+                return peeked = Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    position--;
+                    return peeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the top-level value.
+     */
+    public void endDocument() throws IOException {
+        expect(Token.END_DOCUMENT);
+    }
+
+    /**
+     * Returns whether the current object or array has another element.
+     *
+     * @return True if the next token is not the end of the object or array.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * Returns a string value. Numbers are returned as their literal text.
+     *
+     * @return The string.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            return readString();
+        } else if (token == Token.NUMBER) {
+            peeked = null;
+            return readNumber();
+        }
+        throw syntaxError("Expected a string but was " + token);
+    }
+
+    /**
+     * Returns a string value, or null for a JSON {@code null}.
+     *
+     * @return The string or null.
+     */
+    public String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    /**
+     * Returns a number. A string holding a number is accepted too, since clients often send
+     * form values as strings.
+     *
+     * @return The number.
+     */
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        String literal;
+        if (token == Token.NUMBER) {
+            peeked = null;
+            literal = readNumber();
+        } else if (token == Token.STRING) {
+            peeked = null;
+            literal = readString().trim();
+        } else {
+            throw syntaxError("Expected a number but was " + token);
+        }
+        try {
+            return Double.parseDouble(literal);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + literal);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        String literal = readLiteral();
+        if (literal.equals("true")) {
+            return true;
+        } else if (literal.equals("false")) {
+            return false;
+        }
+        throw syntaxError("Unexpected literal '" + literal + "'");
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        String literal = readLiteral();
+        if (!literal.equals("null")) {
+            throw syntaxError("Unexpected literal '" + literal + "'");
+        }
+    }
+
+    /**
+     * Skips the next value, including everything nested in it.
+     */
+    public void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            case NAME:
+                nextName();
+                skipValue();
+                break;
+            default:
+                nextString();
+                break;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == MAX_DEPTH) {
+            throw syntaxError("JSON nested too deeply");
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote was consumed by {@link #peek()}.
+     */
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            // Copy runs of plain characters in bulk
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    break;
+                }
+                position++;
+            }
+            text.append(buffer, start, position - start);
+            if (position == limit) {
+                if (!fill()) {
+                    throw syntaxError("Unterminated string");
+                }
+                continue;
+            }
+
+            char c = buffer[position++];
+            if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                text.append(readEscape());
+            } else {
+                throw syntaxError("Unescaped control character in string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private String readNumber() throws IOException {
+        text.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                text.append((char) c);
+            } else {
+                position--;
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    private String readLiteral() throws IOException {
+        text.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            if (c >= 'a' && c <= 'z') {
+                text.append((char) c);
+            } else {
+                position--;
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    /**
+     * Returns the next character, or -1 at the end of input. After a character is returned,
+     * {@code position--} pushes it back.
+     */
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException("Malformed JSON: " + message);
+    }
+
+    /**
+     * Counts the bytes read and fails once the limit is crossed.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) {
+            count += n;
+            if (count > maxBytes) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+        }
+    }
+}
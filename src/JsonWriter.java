@@ -0,0 +1,231 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Streaming JSON writer that encodes values straight into a buffered UTF-8 stream.
+ *
+ * <p>Only the buffer is held in memory, so a response of any size costs the same per request.
+ * Commas between values are inserted automatically:
+ * <pre>
+ * json.beginArray();
+ * json.beginObject().name("amount").value(12.5).endObject();
+ * json.endArray();
+ * </pre>
+ */
+public class JsonWriter implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    // Whether the container at each nesting level already holds a value
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(OutputStream stream) {
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * Writes an object member name. The next call writes its value.
+     *
+     * @param name The member name.
+     * @return This writer.
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(out, name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(out, value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Writes a number. NaN and infinities are not valid JSON and are written as {@code null}.
+     *
+     * @param value The number.
+     * @return This writer.
+     */
+    public JsonWriter value(double value) throws IOException {
+        separate();
+        out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a String, Number, Boolean, Map or List value, recursively.
+     *
+     * @param value The value, may be null.
+     * @return This writer.
+     */
+    public JsonWriter value(Object value) throws IOException {
+        if (value == null || value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof Iterable) {
+            beginArray();
+            for (Object item : (Iterable<?>) value) {
+                value(item);
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    /**
+     * Appends the elements of an already encoded array to the current array, so the parts of a
+     * large array can be encoded separately, for example in parallel.
+     *
+     * @param array The encoded array, such as {@code [1,2]}.
+     * @return This writer.
+     */
+    public JsonWriter elements(String array) throws IOException {
+        if (array.length() > 2) {
+            separate();
+            out.write(array, 1, array.length() - 2);
+        }
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flushes the buffer and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Returns a value as a quoted, escaped JSON string.
+     *
+     * @param value The string.
+     * @return The JSON string literal.
+     */
+    public static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        try {
+            writeString(sb, value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    private static void writeString(Appendable out, String value) throws IOException {
+        out.append('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = "\\u" + HEX[c >> 12 & 0xF] + HEX[c >> 8 & 0xF] + HEX[c >> 4 & 0xF] + HEX[c & 0xF];
+            } else {
+                continue;
+            }
+            out.append(value, start, i).append(escape);
+            start = i + 1;
+        }
+        out.append(value, start, length).append('"');
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+        out.write(bracket);
+        hasValue[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        depth--;
+        out.write(bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasValue[depth - 1]) {
+                out.write(',');
+            }
+            hasValue[depth - 1] = true;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous, level-gated logger for diagnostics.
+ *
+ * <p>Callers never write to a stream. A message below the configured level costs one comparison,
+ * and messages passed as a {@link Supplier} are not even built. Enabled messages go into a
+ * lock-free ring buffer that a background thread drains to standard output (INFO and below) or
+ * standard error (WARN and above). If the buffer is full the message is dropped and counted rather
+ * than blocking the caller.
+ *
+ * <p>The level is set with the {@code log.level} system property or the {@code LOG_LEVEL}
+ * environment variable: DEBUG, INFO (default), WARN or ERROR. Console output of the interactive
+ * application does not go through this class.
+ */
+public final class Log {
+
+  /**
+   * Severity of a message.
+   */
+  public enum Level {
+    DEBUG, INFO, WARN, ERROR
+  }
+
+  private static final int CAPACITY = 1 << 13;
+  private static final DateTimeFormatter TIME =
+      DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+  private static final Level LEVEL = parseLevel(
+      System.getProperty("log.level", System.getenv("LOG_LEVEL")));
+
+  private static final AtomicReferenceArray<Entry> RING = new AtomicReferenceArray<>(CAPACITY);
+  // Next slot to claim by producers, and next slot to drain by the writer thread
+  private static final AtomicLong HEAD = new AtomicLong();
+  private static volatile long tail;
+  private static final AtomicLong DROPPED = new AtomicLong();
+
+  private static volatile boolean writerParked;
+  private static final Thread WRITER = startWriter();
+
+  private static final class Entry {
+    final Level level;
+    final long timeMillis;
+    final String thread;
+    final String message;
+    final Throwable error;
+
+    Entry(Level level, String message, Throwable error) {
+      this.level = level;
+      this.timeMillis = System.currentTimeMillis();
+      this.thread = Thread.currentThread().getName();
+      this.message = message;
+      this.error = error;
+    }
+  }
+
+  private Log() {
+  }
+
+  private static Level parseLevel(String value) {
+    if (value == null || value.isEmpty()) {
+      return Level.INFO;
+    }
+    try {
+      return Level.valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown log level '" + value + "', using INFO");
+      return Level.INFO;
+    }
+  }
+
+  /**
+   * Returns whether messages of a level are logged.
+   *
+   * @param level The level.
+   * @return True if the level is at or above the configured level.
+   */
+  public static boolean isEnabled(Level level) {
+    return level.compareTo(LEVEL) >= 0;
+  }
+
+  public static void debug(String message) {
+    if (isEnabled(Level.DEBUG)) {
+      enqueue(new Entry(Level.DEBUG, message, null));
+    }
+  }
+
+  public static void debug(Supplier<String> message) {
+    if (isEnabled(Level.DEBUG)) {
+      enqueue(new Entry(Level.DEBUG, message.get(), null));
+    }
+  }
+
+  public static void info(String message) {
+    if (isEnabled(Level.INFO)) {
+      enqueue(new Entry(Level.INFO, message, null));
+    }
+  }
+
+  public static void info(Supplier<String> message) {
+    if (isEnabled(Level.INFO)) {
+      enqueue(new Entry(Level.INFO, message.get(), null));
+    }
+  }
+
+  public static void warn(String message) {
+    if (isEnabled(Level.WARN)) {
+      enqueue(new Entry(Level.WARN, message, null));
+    }
+  }
+
+  public static void error(String message) {
+    error(message, null);
+  }
+
+  /**
+   * Logs an error with the stack trace of its cause.
+   *
+   * @param message The message.
+   * @param error   The cause, may be null.
+   */
+  public static void error(String message, Throwable error) {
+    if (isEnabled(Level.ERROR)) {
+      enqueue(new Entry(Level.ERROR, message, error));
+    }
+  }
+
+  /**
+   * Returns the configured level.
+   *
+   * @return The level.
+   */
+  public static Level getLevel() {
+    return LEVEL;
+  }
+
+  /**
+   * Returns how many messages were dropped because the buffer was full.
+   *
+   * @return The number of dropped messages.
+   */
+  public static long getDropped() {
+    return DROPPED.get();
+  }
+
+  /**
+   * Waits until every message logged so far has been written.
+   */
+  public static void flush() {
+    long target = HEAD.get();
+    while (tail < target && WRITER.isAlive()) {
+      LockSupport.unpark(WRITER);
+      Thread.onSpinWait();
+    }
+  }
+
+  private static void enqueue(Entry entry) {
+    // Claim a slot with a CAS so a full buffer drops the message without leaving a gap
+    long slot;
+    do {
+      slot = HEAD.get();
+      if (slot - tail >= CAPACITY) {
+        DROPPED.incrementAndGet();
+        return;
+      }
+    } while (!HEAD.compareAndSet(slot, slot + 1));
+    RING.set((int) (slot & (CAPACITY - 1)), entry);
+    if (writerParked) {
+      LockSupport.unpark(WRITER);
+    }
+  }
+
+  private static Thread startWriter() {
+    Thread thread = new Thread(Log::drain, "log-writer");
+    thread.setDaemon(true);
+    thread.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    return thread;
+  }
+
+  private static void drain() {
+    long reportedDrops = 0;
+    while (true) {
+      long next = tail;
+      int index = (int) (next & (CAPACITY - 1));
+      Entry entry = RING.get(index);
+      if (entry == null) {
+        if (next < HEAD.get()) {
+          // A producer claimed the slot but has not stored its entry yet
+          Thread.onSpinWait();
+          continue;
+        }
+        long dropped = DROPPED.get();
+        if (dropped != reportedDrops) {
+          System.err.println(format(new Entry(Level.WARN,
+              (dropped - reportedDrops) + " log messages dropped, buffer full", null)));
+          reportedDrops = dropped;
+        }
+        System.out.flush();
+        writerParked = true;
+        if (next == HEAD.get()) {
+          LockSupport.parkNanos(100_000_000L);
+        }
+        writerParked = false;
+        continue;
+      }
+      RING.set(index, null);
+      tail = next + 1;
+
+      PrintStream out = entry.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+      out.println(format(entry));
+      if (entry.error != null) {
+        entry.error.printStackTrace(out);
+      }
+    }
+  }
+
+  private static String format(Entry entry) {
+    return TIME.format(Instant.ofEpochMilli(entry.timeMillis)) + " " + entry.level + " ["
+        + entry.thread + "] " + entry.message;
+  }
+}
@@ -8,14 +8,20 @@ public class Main {
     // Check if we should run in API mode
     if (args.length > 0 && args[0].equals("--api")) {
       // Start the API server
-      System.out.println("Starting API server on http://localhost:8080");
+      Log.info("Starting API server on http://localhost:8080");
       try {
         SimpleHttpServer server = new SimpleHttpServer(8080, app);
         server.start();
-        System.out.println("Server started successfully. Press Ctrl+C to stop.");
+        // Close the log before the JVM exits; flush again for the messages logged here
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          server.stop();
+          app.repository.close();
+          Log.info("Server stopped");
+          Log.flush();
+        }, "server-shutdown"));
+        Log.info("Server started successfully. Press Ctrl+C to stop.");
       } catch (IOException e) {
-        System.err.println("Failed to start server: " + e.getMessage());
-        e.printStackTrace();
+        Log.error("Failed to start server: " + e.getMessage(), e);
       }
     } else {
       // Run the console app
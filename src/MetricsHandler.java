@@ -0,0 +1,61 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves server gauges as JSON on {@code GET /api/metrics}.
+ */
+public class MetricsHandler implements HttpHandler {
+    private final RequestExecutor executor;
+    private final ExpenseEventStream stream;
+    private final ReportCache reportCache;
+
+    public MetricsHandler(RequestExecutor executor, ExpenseEventStream stream, ReportCache reportCache) {
+        this.executor = executor;
+        this.stream = stream;
+        this.reportCache = reportCache;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+        if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"executor\":{");
+        json.append("\"mode\":\"").append(executor.getMode()).append("\"");
+        json.append(",\"queueDepth\":").append(executor.getQueueDepth());
+        json.append(",\"activeRequests\":").append(executor.getActiveRequests());
+        json.append(",\"completedRequests\":").append(executor.getCompletedRequests());
+        json.append(",\"rejectedRequests\":").append(executor.getRejectedRequests());
+        json.append("}");
+        json.append(",\"log\":{\"level\":\"").append(Log.getLevel()).append("\"");
+        json.append(",\"dropped\":").append(Log.getDropped());
+        json.append("}");
+        json.append(",\"stream\":{\"clients\":").append(stream.getClientCount());
+        json.append(",\"evicted\":").append(stream.getEvictedCount());
+        json.append("}");
+        json.append(",\"reportCache\":{\"hits\":").append(reportCache.getHits());
+        json.append(",\"misses\":").append(reportCache.getMisses());
+        json.append(",\"invalidations\":").append(reportCache.getInvalidations());
+        json.append(",\"entries\":").append(reportCache.size());
+        json.append(",\"bytes\":").append(reportCache.getBytes());
+        json.append("}}");
+
+        byte[] responseBytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, responseBytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(responseBytes);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of encoded report responses, bounded by their total size.
+ *
+ * <p>Every entry is tagged with the store version it was built from, plus the date range and
+ * category it covers. A lookup at a newer version reads the changes since the entry's version from
+ * the {@link ChangeJournal}: if none of them touches an expense inside the entry's range and
+ * category, the entry is still correct and is retagged with the new version; otherwise it is
+ * dropped. A write to March therefore only invalidates the reports that cover March.
+ */
+public class ReportCache {
+    public static final long DEFAULT_MAX_BYTES = Long.getLong("server.reports.cacheBytes", 16L * 1024 * 1024);
+
+    // Rough per-entry overhead of the map node, the entry and the key
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ExpenseStore store;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param store    The store the reports are built from.
+     * @param maxBytes The most bytes of responses to keep.
+     */
+    public ReportCache(ExpenseStore store, long maxBytes) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a cached response that is still correct at a snapshot.
+     *
+     * @param key      The normalized report parameters.
+     * @param snapshot The snapshot the report would be built from.
+     * @return The response, or null on a miss.
+     */
+    public byte[] get(String key, ExpenseSnapshot snapshot) {
+        Entry entry;
+        long version;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            version = entry.version;
+        }
+
+        if (version < snapshot.version()) {
+            // Check the changes since the entry was built outside the lock
+            if (affected(entry, store.changesSince(version, snapshot), snapshot)) {
+                synchronized (this) {
+                    if (entries.remove(key, entry)) {
+                        bytes -= entry.weight;
+                    }
+                }
+                invalidations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            synchronized (this) {
+                entry.version = Math.max(entry.version, snapshot.version());
+            }
+        }
+        hits.incrementAndGet();
+        return entry.body;
+    }
+
+    /**
+     * Caches a response. Responses larger than a quarter of the cache are not kept.
+     *
+     * @param key        The normalized report parameters.
+     * @param snapshot   The snapshot the report was built from.
+     * @param fromDay    The first epoch day the report covers.
+     * @param toDay      The last epoch day the report covers.
+     * @param categoryId The category the report covers, or -1 for all categories.
+     * @param body       The encoded response.
+     */
+    public void put(String key, ExpenseSnapshot snapshot, int fromDay, int toDay, int categoryId, byte[] body) {
+        long weight = (long) body.length + 2L * key.length() + ENTRY_OVERHEAD;
+        if (weight > maxBytes / 4) {
+            return;
+        }
+        Entry entry = new Entry(snapshot.version(), fromDay, toDay, categoryId, body, weight);
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.weight;
+            }
+            bytes += weight;
+            // Access order puts the least recently used entries first
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().weight;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Checks whether any change adds, moves or removes an expense inside an entry's range and
+     * category. Category changes do not alter reports and are ignored.
+     */
+    private static boolean affected(Entry entry, List<ChangeJournal.Change> changes, ExpenseSnapshot snapshot) {
+        if (changes == null) {
+            // The journal no longer reaches back to the entry's version
+            return true;
+        }
+        for (ChangeJournal.Change change : changes) {
+            if (covers(entry, change.row(), snapshot) || covers(entry, change.oldRow(), snapshot)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean covers(Entry entry, int row, ExpenseSnapshot snapshot) {
+        if (row < 0) {
+            return false;
+        }
+        int day = snapshot.epochDay(row);
+        return day >= entry.fromDay && day <= entry.toDay
+                && (entry.categoryId < 0 || snapshot.categoryId(row) == entry.categoryId);
+    }
+
+    /**
+     * Returns how many lookups found a correct response.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns how many lookups had to build the report.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns how many entries were dropped because a write touched their range.
+     *
+     * @return The number of invalidations.
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Returns the number of cached responses.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the weight of the cached responses.
+     *
+     * @return The size in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static final class Entry {
+        final int fromDay;
+        final int toDay;
+        final int categoryId;
+        final byte[] body;
+        final long weight;
+        // Raised under the cache lock when a lookup finds the entry still correct
+        long version;
+
+        Entry(long version, int fromDay, int toDay, int categoryId, byte[] body, long weight) {
+            this.version = version;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.categoryId = categoryId;
+            this.body = body;
+            this.weight = weight;
+        }
+    }
+}
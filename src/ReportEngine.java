@@ -0,0 +1,191 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates the rows of a date range in parallel on a shared fork/join pool.
+ *
+ * <p>The positions of a date index are in date order, so splitting them splits the range into
+ * consecutive date partitions. Each partition is aggregated into a partial result on its own, and
+ * the partials are merged pairwise in date order, earlier with later. A range of at most
+ * {@link #PARALLEL_THRESHOLD} rows is aggregated as one partition on the calling thread, so small
+ * reports pay nothing for the pool.
+ */
+public final class ReportEngine {
+  public static final int PARALLELISM = Integer.getInteger("server.reports.parallelism",
+      Runtime.getRuntime().availableProcessors());
+  public static final int PARALLEL_THRESHOLD = Integer.getInteger("server.reports.parallelThreshold", 65536);
+
+  // Enough partitions per worker to even out partitions that take longer than others
+  private static final int PARTITIONS_PER_WORKER = 4;
+  private static final int MIN_PARTITION_ROWS = 2 * ExpenseStore.CHUNK_SIZE;
+
+  private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("report-worker-" + thread.getPoolIndex());
+    return thread;
+  }, null, false);
+
+  /**
+   * Aggregates the rows of one partition and merges partial results.
+   *
+   * @param <A> The type of the partial results.
+   */
+  public interface Aggregation<A> {
+
+    /**
+     * Aggregates the rows of one partition. May run on any thread.
+     *
+     * @param partition The partition.
+     * @return The partial result.
+     */
+    A aggregate(Partition partition);
+
+    /**
+     * Merges the partial results of two adjacent partitions. May reuse either of them.
+     *
+     * @param earlier The result of the earlier dates.
+     * @param later   The result of the later dates.
+     * @return The result of both.
+     */
+    A merge(A earlier, A later);
+  }
+
+  /**
+   * Consecutive positions of a date index.
+   */
+  public static final class Partition {
+    private final ExpenseSnapshot snapshot;
+    private final DateIndex.View index;
+    private final int from;
+    private final int to;
+
+    Partition(ExpenseSnapshot snapshot, DateIndex.View index, int from, int to) {
+      this.snapshot = snapshot;
+      this.index = index;
+      this.from = from;
+      this.to = to;
+    }
+
+    /**
+     * Returns the number of index positions in the partition. Tombstones of rows the snapshot
+     * does not see are counted here but skipped by {@link #scan(ExpenseStore.RowVisitor)}.
+     *
+     * @return The number of positions.
+     */
+    public int size() {
+      return to - from;
+    }
+
+    /**
+     * Returns the date of the partition's first position.
+     *
+     * @return The epoch day, undefined if the partition is empty.
+     */
+    public int firstDay() {
+      return index.day(from);
+    }
+
+    /**
+     * Returns the date of the partition's last position.
+     *
+     * @return The epoch day, undefined if the partition is empty.
+     */
+    public int lastDay() {
+      return index.day(to - 1);
+    }
+
+    /**
+     * Visits the current rows of the partition in date order. Rows with the same date are visited
+     * in insertion order.
+     *
+     * @param visitor Receives each row.
+     */
+    public void scan(ExpenseStore.RowVisitor visitor) {
+      for (int position = from; position < to; position++) {
+        int row = index.row(position);
+        if (snapshot.isCurrent(row)) {
+          visitor.visit(row, index.day(position), snapshot.amountCents(row), snapshot.categoryId(row));
+        }
+      }
+    }
+  }
+
+  private ReportEngine() {
+  }
+
+  /**
+   * Aggregates the positions {@code [from, to)} of a date index.
+   *
+   * @param snapshot    The snapshot the index belongs to.
+   * @param index       The date index.
+   * @param from        The first position.
+   * @param to          The position after the last one.
+   * @param aggregation Aggregates and merges the partitions.
+   * @return The merged result.
+   */
+  static <A> A aggregate(ExpenseSnapshot snapshot, DateIndex.View index, int from, int to,
+      Aggregation<A> aggregation) {
+    int rows = to - from;
+    if (rows <= PARALLEL_THRESHOLD || PARALLELISM <= 1) {
+      return aggregation.aggregate(new Partition(snapshot, index, from, to));
+    }
+    int partitionRows = Math.max(MIN_PARTITION_ROWS, rows / (PARALLELISM * PARTITIONS_PER_WORKER));
+    PartitionTask<A> task = new PartitionTask<>(snapshot, index, from, to, partitionRows, aggregation);
+    // A report computed on a worker, for example inside another aggregation, forks in place
+    return ForkJoinTask.getPool() == POOL ? task.invoke() : POOL.invoke(task);
+  }
+
+  private static final class PartitionTask<A> extends RecursiveTask<A> {
+    private static final long serialVersionUID = 1L;
+
+    private final ExpenseSnapshot snapshot;
+    private final DateIndex.View index;
+    private final int from;
+    private final int to;
+    private final int partitionRows;
+    private final Aggregation<A> aggregation;
+
+    PartitionTask(ExpenseSnapshot snapshot, DateIndex.View index, int from, int to, int partitionRows,
+        Aggregation<A> aggregation) {
+      this.snapshot = snapshot;
+      this.index = index;
+      this.from = from;
+      this.to = to;
+      this.partitionRows = partitionRows;
+      this.aggregation = aggregation;
+    }
+
+    @Override
+    protected A compute() {
+      int split = split();
+      if (split < 0) {
+        return aggregation.aggregate(new Partition(snapshot, index, from, to));
+      }
+      PartitionTask<A> earlier = new PartitionTask<>(snapshot, index, from, split, partitionRows, aggregation);
+      PartitionTask<A> later = new PartitionTask<>(snapshot, index, split, to, partitionRows, aggregation);
+      later.fork();
+      A earlierResult = earlier.compute();
+      return aggregation.merge(earlierResult, later.join());
+    }
+
+    /**
+     * Returns a position near the middle that starts a new day, so no date is split between
+     * partitions, or -1 if the partition is small enough to aggregate.
+     */
+    private int split() {
+      if (to - from <= partitionRows) {
+        return -1;
+      }
+      int middle = (from + to) >>> 1;
+      int day = index.day(middle);
+      int split = index.upperBound(day);
+      if (split >= to) {
+        split = index.lowerBound(day);
+      }
+      // A single day with most of the rows is split anywhere rather than not at all
+      return split > from && split < to ? split : middle;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Body of a report request:
+ * {@code {"type": ..., "category": ..., "startDate": ..., "endDate": ...}}. The frontend also
+ * sends the category as {@code categoryId}. Group-by reports add {@code "bucket"} and an optional
+ * {@code "categories"} array.
+ *
+ * @param type       The report type, null if missing.
+ * @param category   The category, null if missing.
+ * @param startDate  The first date, null if missing.
+ * @param endDate    The last date, null if missing.
+ * @param bucket     The period to group by, null if missing.
+ * @param categories The categories to include, null if missing.
+ */
+public record ReportRequest(String type, String category, String startDate, String endDate, String bucket,
+                            List<String> categories) {
+
+    /**
+     * Binds the next JSON object of a reader. Unknown members are skipped.
+     *
+     * @param reader The reader.
+     * @return The request.
+     * @throws IllegalArgumentException If the JSON is malformed.
+     */
+    public static ReportRequest read(JsonReader reader) throws IOException {
+        String type = null;
+        String category = null;
+        String startDate = null;
+        String endDate = null;
+        String bucket = null;
+        List<String> categories = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type" -> type = reader.nextStringOrNull();
+                case "category", "categoryId" -> category = reader.nextStringOrNull();
+                case "startDate" -> startDate = reader.nextStringOrNull();
+                case "endDate" -> endDate = reader.nextStringOrNull();
+                case "bucket" -> bucket = reader.nextStringOrNull();
+                case "categories" -> categories = readStrings(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new ReportRequest(type, category, startDate, endDate, bucket, categories);
+    }
+
+    private static List<String> readStrings(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonReader.Token.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        return values;
+    }
+
+    /**
+     * Returns a key that is equal for requests with the same parameters, whatever the order or
+     * formatting of their JSON.
+     *
+     * @return The key.
+     */
+    public String cacheKey() {
+        StringBuilder key = new StringBuilder();
+        key.append(keyPart(type)).append(keyPart(category)).append(keyPart(startDate)).append(keyPart(endDate))
+                .append(keyPart(bucket));
+        if (categories != null) {
+            key.append(categories.size()).append('[');
+            for (String name : categories) {
+                key.append(keyPart(name));
+            }
+        }
+        return key.toString();
+    }
+
+    // Missing and empty members are kept apart, since responses echo them differently
+    private static String keyPart(String value) {
+        return value == null ? "\u0000" : value.length() + ":" + value;
+    }
+}
@@ -3,25 +3,41 @@ import com.sun.net.httpserver.HttpHandler;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves {@code POST /api/reports} for both servers: the expenses of a date range
+ * ({@code category}), the current against the previous month or year ({@code month-comparison},
+ * {@code year-comparison}) and {@code group-by} buckets.
+ */
 public class ReportsHandler implements HttpHandler {
-    private static final String EXPENSES_FILE = "res/expenses.txt";
+    private static final DateTimeFormatter MONTH_NAME = DateTimeFormatter.ofPattern("MMMM yyyy", Locale.ENGLISH);
+
+    private final ExpenseStore store;
+    private final ReportCache cache;
+    private final SingleFlight<byte[]> flights = new SingleFlight<>();
+
+    public ReportsHandler(ExpenseStore store, ReportCache cache) {
+        this.store = store;
+        this.cache = cache;
+    }
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         String method = exchange.getRequestMethod();
-        String path = exchange.getRequestURI().getPath();
 
         // Set CORS headers
         exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
         exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
         exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type,Authorization");
 
+        Log.debug(() -> "Received " + method + " request to " + exchange.getRequestURI());
+
         // Handle preflight requests
         if (method.equals("OPTIONS")) {
             exchange.sendResponseHeaders(204, -1);
@@ -29,207 +45,43 @@ public class ReportsHandler implements HttpHandler {
         }
 
         if (method.equals("POST")) {
-            // Read request body
-            InputStreamReader isr = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8);
-            BufferedReader br = new BufferedReader(isr);
-            StringBuilder requestBody = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                requestBody.append(line);
-            }
-
-            // Parse JSON request
-            String jsonRequest = requestBody.toString();
-            System.out.println("Report request: " + jsonRequest);
-
-            // Load expenses
-            List<Map<String, Object>> allExpenses = new ArrayList<>();
-
-            try {
-                System.out.println("Loading expenses from file: " + EXPENSES_FILE);
-                File file = new File(EXPENSES_FILE);
-                if (!file.exists()) {
-                    System.out.println("Expenses file does not exist!");
-                } else {
-                    List<String> lines = Files.readAllLines(Paths.get(EXPENSES_FILE), StandardCharsets.UTF_8);
-                    System.out.println("Read " + lines.size() + " lines from expenses file");
-
-                    for (String expLine : lines) {
-                        expLine = expLine.trim();
-                        if (expLine.isEmpty()) {
-                            continue;
-                        }
-
-                        // Find the last two parts (amount and date) and consider everything before as the category
-                        int lastSpace = expLine.lastIndexOf(' ');
-                        if (lastSpace > 0) {
-                            String date = expLine.substring(lastSpace + 1);
-                            String remainingLine = expLine.substring(0, lastSpace).trim();
-
-                            lastSpace = remainingLine.lastIndexOf(' ');
-                            if (lastSpace > 0) {
-                                String amountStr = remainingLine.substring(lastSpace + 1);
-                                String category = remainingLine.substring(0, lastSpace).trim();
-                                try {
-                                    double amount = Double.parseDouble(amountStr);
-
-                                    // Normalize date format if needed
-                                    String normalizedDate = normalizeDate(date);
-
-                                    Map<String, Object> expense = new HashMap<>();
-                                    expense.put("category", category);
-                                    expense.put("amount", amount);
-                                    expense.put("date", normalizedDate);
-
-                                    allExpenses.add(expense);
-                                } catch (NumberFormatException e) {
-                                    System.err.println("Error parsing amount: " + e.getMessage());
-                                }
-                            }
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Error loading expenses: " + e.getMessage());
-            }
-
             // Parse report parameters
-            String reportType = "";
-            String category = "";
-            String startDate = "";
-            String endDate = "";
-
-            try {
-                // Simple JSON parsing without external libraries
-                String json = jsonRequest.trim();
-                if (json.startsWith("{") && json.endsWith("}")) {
-                    json = json.substring(1, json.length() - 1);
-                    String[] pairs = json.split(",");
-                    for (String pair : pairs) {
-                        String[] keyValue = pair.split(":");
-                        if (keyValue.length == 2) {
-                            String key = keyValue[0].trim().replace("\"", "");
-                            String value = keyValue[1].trim().replace("\"", "");
-
-                            if (key.equals("type")) {
-                                reportType = value;
-                            } else if (key.equals("category") || key.equals("categoryId")) {
-                                category = value;
-                            } else if (key.equals("startDate")) {
-                                startDate = value;
-                            } else if (key.equals("endDate")) {
-                                endDate = value;
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println("Error parsing report request: " + e.getMessage());
-            }
-
-            // Filter expenses based on report parameters
-            List<Map<String, Object>> filteredExpenses = new ArrayList<>();
-
-            // Normalize dates for comparison
-            String normalizedStartDate = normalizeDate(startDate);
-            String normalizedEndDate = normalizeDate(endDate);
-
-            // Convert to Date objects for comparison
-            Date startDateObj = null;
-            Date endDateObj = null;
-
-            try {
-                if (!normalizedStartDate.isEmpty()) {
-                    startDateObj = new SimpleDateFormat("yyyy-MM-dd").parse(normalizedStartDate);
-                }
-                if (!normalizedEndDate.isEmpty()) {
-                    endDateObj = new SimpleDateFormat("yyyy-MM-dd").parse(normalizedEndDate);
-                }
-            } catch (ParseException e) {
-                System.err.println("Error parsing date: " + e.getMessage());
+            ReportRequest request;
+            try (JsonReader reader = JsonReader.forRequest(exchange)) {
+                request = ReportRequest.read(reader);
+                reader.endDocument();
+            } catch (IllegalArgumentException e) {
+                Log.warn("Error parsing report request: " + e.getMessage());
+                sendError(exchange, e instanceof JsonReader.BodyTooLargeException ? 413 : 400, e.getMessage());
+                return;
             }
-
-            // Filter expenses
-            for (Map<String, Object> expense : allExpenses) {
-                boolean include = true;
-
-                // Filter by category if specified
-                if (!category.isEmpty() && !category.equals("all")) {
-                    String expenseCategory = (String) expense.get("category");
-                    if (!expenseCategory.equals(category)) {
-                        include = false;
-                    }
-                }
-
-                // Filter by date range if specified
-                if (startDateObj != null || endDateObj != null) {
-                    String expenseDateStr = (String) expense.get("date");
-                    try {
-                        Date expenseDate = new SimpleDateFormat("yyyy-MM-dd").parse(expenseDateStr);
-
-                        if (startDateObj != null && expenseDate.before(startDateObj)) {
-                            include = false;
-                        }
-
-                        if (endDateObj != null && expenseDate.after(endDateObj)) {
-                            include = false;
-                        }
-                    } catch (ParseException e) {
-                        System.err.println("Error parsing expense date: " + e.getMessage());
-                        include = false;
-                    }
-                }
-
-                if (include) {
-                    filteredExpenses.add(expense);
-                }
+            String reportType = request.type() != null ? request.type() : "";
+            Log.debug(() -> "Report type: " + reportType);
+
+            ExpenseSnapshot snapshot = store.snapshot();
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            if (reportType.equals("group-by")) {
+                sendGroupBy(exchange, request, snapshot);
+            } else if (reportType.equals("month-comparison")) {
+                // Read the clock once, so the cache key and the report agree on the current month
+                YearMonth current = YearMonth.now();
+                YearMonth previous = current.minusMonths(1);
+                send(exchange, snapshot, reportType + " " + current,
+                        ExpenseDates.firstDayOfMonth(previous.getYear(), previous.getMonthValue()),
+                        ExpenseDates.lastDayOfMonth(current.getYear(), current.getMonthValue()), -1,
+                        () -> renderComparison(reportType, MONTH_NAME.format(current), MONTH_NAME.format(previous),
+                                monthTotal(current), monthTotal(previous)));
+            } else if (reportType.equals("year-comparison")) {
+                int currentYear = Year.now().getValue();
+                send(exchange, snapshot, reportType + " " + currentYear,
+                        ExpenseDates.firstDayOfMonth(currentYear - 1, 1), ExpenseDates.lastDayOfMonth(currentYear, 12), -1,
+                        () -> renderComparison(reportType, String.valueOf(currentYear), String.valueOf(currentYear - 1),
+                                yearTotal(currentYear), yearTotal(currentYear - 1)));
+            } else if (reportType.isEmpty() || reportType.equals("category")) {
+                sendExpenses(exchange, request, reportType, snapshot);
+            } else {
+                sendError(exchange, 400, "Invalid report type");
             }
-
-            // Prepare response
-            Map<String, Object> response = new HashMap<>();
-            response.put("expenses", filteredExpenses);
-            response.put("startDate", startDate);
-            response.put("endDate", endDate);
-            response.put("category", category);
-            response.put("reportType", reportType);
-
-            // Convert response to JSON
-            StringBuilder jsonResponse = new StringBuilder();
-            jsonResponse.append("{");
-            jsonResponse.append("\"expenses\":");
-            jsonResponse.append("[");
-
-            for (int i = 0; i < filteredExpenses.size(); i++) {
-                Map<String, Object> expense = filteredExpenses.get(i);
-                jsonResponse.append("{");
-                jsonResponse.append("\"category\":\"" + expense.get("category") + "\",");
-                jsonResponse.append("\"amount\":" + expense.get("amount") + ",");
-                jsonResponse.append("\"date\":\"" + expense.get("date") + "\"");
-                jsonResponse.append("}");
-
-                if (i < filteredExpenses.size() - 1) {
-                    jsonResponse.append(",");
-                }
-            }
-
-            jsonResponse.append("]");
-            jsonResponse.append(",\"startDate\":\"" + startDate + "\"");
-            jsonResponse.append(",\"endDate\":\"" + endDate + "\"");
-            jsonResponse.append(",\"category\":\"" + category + "\"");
-            jsonResponse.append(",\"reportType\":\"" + reportType + "\"");
-            jsonResponse.append("}");
-
-            // Send response
-            byte[] responseBytes = jsonResponse.toString().getBytes(StandardCharsets.UTF_8);
-
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, responseBytes.length);
-
-            OutputStream os = exchange.getResponseBody();
-            os.write(responseBytes);
-            os.close();
-
-            System.out.println("Report generated with " + filteredExpenses.size() + " expenses");
         } else {
             // Method not allowed
             String response = "Method not allowed";
@@ -240,42 +92,183 @@ public class ReportsHandler implements HttpHandler {
         }
     }
 
-    private static String normalizeDate(String dateStr) {
-        if (dateStr == null || dateStr.trim().isEmpty()) {
-            return "";
+    /**
+     * Sends the expenses of a date range and category. An empty or invalid bound does not filter.
+     */
+    private void sendExpenses(HttpExchange exchange, ReportRequest request, String reportType,
+            ExpenseSnapshot snapshot) throws IOException {
+        String category = request.category() != null ? request.category() : "";
+        String startDate = request.startDate() != null ? request.startDate() : "";
+        String endDate = request.endDate() != null ? request.endDate() : "";
+
+        // Parse the range once
+        int startDay = ExpenseDates.toEpochDay(startDate);
+        int lastDay = ExpenseDates.toEpochDay(endDate);
+        int endDay = lastDay == ExpenseDates.INVALID ? Integer.MAX_VALUE : lastDay;
+
+        boolean allCategories = category.isEmpty() || category.equals("all");
+        int categoryId = allCategories ? -1 : snapshot.categoryId(category);
+        send(exchange, snapshot, request.cacheKey(), startDay, endDay, categoryId,
+                () -> render(snapshot, startDay, endDay, categoryId, allCategories || categoryId >= 0,
+                        startDate, endDate, category, reportType));
+    }
+
+    /**
+     * Sends a {@code group-by} report.
+     */
+    private void sendGroupBy(HttpExchange exchange, ReportRequest request, ExpenseSnapshot snapshot)
+            throws IOException {
+        GroupByReport report;
+        try {
+            report = GroupByReport.of(request, snapshot);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+        send(exchange, snapshot, request.cacheKey(), report.coveredFromDay(), report.coveredToDay(),
+                report.categoryId(), () -> report.render(store, snapshot));
+    }
+
+    /**
+     * Sends a report from the cache if no write has touched the dates and category it covers,
+     * otherwise renders it once for all identical requests that arrive together and caches it.
+     */
+    private void send(HttpExchange exchange, ExpenseSnapshot snapshot, String key, int fromDay, int toDay,
+            int categoryId, SingleFlight.Computation<byte[]> renderer) throws IOException {
+        byte[] response = cache.get(key, snapshot);
+        if (response == null) {
+            response = flights.run(key, snapshot.version(), () -> {
+                byte[] body = renderer.compute();
+                cache.put(key, snapshot, fromDay, toDay, categoryId, body);
+                return body;
+            });
         }
+        Compression.send(exchange, 200, response);
+    }
+
+    private double monthTotal(YearMonth month) {
+        // One rollup cell per category instead of visiting the rows
+        int number = month.getYear() * 12 + month.getMonthValue() - 1;
+        return ExpenseStore.fromCents(store.rollup(number, number, -1).sumCents());
+    }
+
+    private double yearTotal(int year) {
+        return ExpenseStore.fromCents(store.rollup(year * 12, year * 12 + 11, -1).sumCents());
+    }
 
-        // Check if date is already in YYYY-MM-DD format
-        if (dateStr.matches("\\d{4}-\\d{2}-\\d{2}")) {
-            return dateStr;
+    /**
+     * Encodes a comparison of the current period with the previous one. The {@code expenses} array
+     * is always empty; the frontend expects one on every report.
+     */
+    private static byte[] renderComparison(String reportType, String currentName, String previousName,
+            double currentTotal, double previousTotal) throws IOException {
+        boolean month = reportType.equals("month-comparison");
+        double difference = currentTotal - previousTotal;
+        double percentageChange = previousTotal > 0 ? difference / previousTotal * 100 : 0;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(body)) {
+            json.beginObject();
+            json.name("type").value(reportType);
+            json.name(month ? "currentMonth" : "currentYear").value(currentName);
+            json.name(month ? "previousMonth" : "previousYear").value(previousName);
+            json.name("labels").beginArray()
+                    .value(month ? "Current Month" : "Current Year")
+                    .value(month ? "Previous Month" : "Previous Year")
+                    .endArray();
+            json.name("values").beginArray().value(currentTotal).value(previousTotal).endArray();
+            json.name("currentTotal").value(currentTotal);
+            json.name("previousTotal").value(previousTotal);
+            json.name("difference").value(difference);
+            json.name("percentageChange").value(percentageChange);
+            json.name("expenses").beginArray().endArray();
+            json.endObject();
         }
+        return body.toByteArray();
+    }
 
-        // Try to convert from DD.MM.YYYY to YYYY-MM-DD
-        try {
-            String[] parts = dateStr.split("\\.");
-            if (parts.length == 3) {
-                String day = parts[0].length() == 1 ? "0" + parts[0] : parts[0];
-                String month = parts[1].length() == 1 ? "0" + parts[1] : parts[1];
-                String year = parts[2];
-                return year + "-" + month + "-" + day;
-            }
-        } catch (Exception e) {
-            System.err.println("Error normalizing date '" + dateStr + "': " + e.getMessage());
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] error = ("{\"error\":" + JsonWriter.quote(message) + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, error.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(error);
         }
+    }
 
-        // Try to convert from MM/DD/YYYY to YYYY-MM-DD
-        try {
-            String[] parts = dateStr.split("/");
-            if (parts.length == 3) {
-                String month = parts[0].length() == 1 ? "0" + parts[0] : parts[0];
-                String day = parts[1].length() == 1 ? "0" + parts[1] : parts[1];
-                String year = parts[2];
-                return year + "-" + month + "-" + day;
+    /**
+     * Encodes the expenses of a range, in date order, followed by their total and the echoed
+     * request parameters. An unknown category matches nothing. Wide ranges are encoded in parallel, one array part per
+     * date partition.
+     */
+    private byte[] render(ExpenseSnapshot snapshot, int startDay, int endDay, int categoryId, boolean knownCategory,
+            String startDate, String endDate, String category, String reportType) throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        AtomicLong totalCents = new AtomicLong();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(body)) {
+            json.beginObject();
+            json.name("type").value("category");
+            json.name("expenses").beginArray();
+            if (knownCategory) {
+                // Binary search the date index; the parts come back in date order
+                List<String> parts = snapshot.aggregateDateRange(startDay, endDay, categoryId,
+                        new ReportEngine.Aggregation<>() {
+                            @Override
+                            public List<String> aggregate(ReportEngine.Partition partition) {
+                                return new ArrayList<>(List.of(encode(snapshot, partition, count, totalCents)));
+                            }
+
+                            @Override
+                            public List<String> merge(List<String> earlier, List<String> later) {
+                                earlier.addAll(later);
+                                return earlier;
+                            }
+                        });
+                for (String part : parts) {
+                    json.elements(part);
+                }
             }
-        } catch (Exception e) {
-            System.err.println("Error normalizing date '" + dateStr + "': " + e.getMessage());
+            json.endArray();
+            json.name("total").value(ExpenseStore.fromCents(totalCents.get()));
+            json.name("startDate").value(startDate);
+            json.name("endDate").value(endDate);
+            json.name("category").value(category);
+            json.name("reportType").value(reportType);
+            json.endObject();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
 
-        return dateStr; // Return original if normalization fails
+        Log.debug(() -> "Report generated with " + count.get() + " expenses");
+        return body.toByteArray();
+    }
+
+    /**
+     * Encodes the expenses of one date partition as an array and adds their number and amounts to
+     * running totals.
+     */
+    private static String encode(ExpenseSnapshot snapshot, ReportEngine.Partition partition, AtomicInteger count,
+            AtomicLong totalCents) {
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        int[] partCount = new int[1];
+        long[] partCents = new long[1];
+        try (JsonWriter json = new JsonWriter(part)) {
+            json.beginArray();
+            partition.scan((row, epochDay, amountCents, rowCategoryId) -> {
+                try {
+                    ExpenseJson.writeExpense(json, snapshot, row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                partCount[0]++;
+                partCents[0] += amountCents;
+            });
+            json.endArray();
+            count.addAndGet(partCount[0]);
+            totalCents.addAndGet(partCents[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return part.toString(StandardCharsets.UTF_8);
     }
 }
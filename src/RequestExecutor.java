@@ -0,0 +1,218 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for HTTP server requests with queue-depth and active-request gauges.
+ *
+ * <p>The mode is chosen with the {@code server.executor} system property or the
+ * {@code SERVER_EXECUTOR} environment variable:
+ * <ul>
+ *   <li>{@code virtual} - one virtual thread per request (JDK 21+)</li>
+ *   <li>{@code pool} - a bounded pool of platform threads ({@code server.threads}) with a bounded
+ *       queue ({@code server.queueCapacity}); when the queue is full the request is handed to a
+ *       single overload thread that answers {@code 503 Service Unavailable} without running the
+ *       handler, and when that thread is backed up too the connection is closed</li>
+ *   <li>{@code auto} (default) - virtual threads when the JDK supports them, otherwise the pool</li>
+ * </ul>
+ *
+ * <p>The dispatcher thread of the HTTP server never runs a request. Contexts must be created with
+ * {@link #createContext(HttpServer, String, HttpHandler)} so rejected requests get their 503.
+ */
+public class RequestExecutor implements Executor {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final int OVERLOAD_QUEUE_CAPACITY = 256;
+
+    // Set while the overload thread runs a rejected request, so the filter answers it with a 503
+    private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+
+    private final String mode;
+    private final ExecutorService delegate;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private RequestExecutor(String mode, ExecutorService delegate) {
+        this.mode = mode;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Creates the executor configured by system properties and environment.
+     *
+     * @return The request executor.
+     */
+    public static RequestExecutor create() {
+        String mode = System.getProperty("server.executor", System.getenv("SERVER_EXECUTOR"));
+        mode = mode == null || mode.isEmpty() ? "auto" : mode.trim().toLowerCase();
+
+        if (mode.equals("virtual") || mode.equals("auto")) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                return new RequestExecutor("virtual", virtual);
+            }
+            if (mode.equals("virtual")) {
+                Log.warn("Virtual threads are not supported by this JDK, using a thread pool");
+            }
+        } else if (!mode.equals("pool")) {
+            Log.warn("Unknown executor mode '" + mode + "', using a thread pool");
+        }
+
+        int threads = Integer.getInteger("server.threads", Runtime.getRuntime().availableProcessors() * 4);
+        int queueCapacity = Integer.getInteger("server.queueCapacity", DEFAULT_QUEUE_CAPACITY);
+        // Only parses request headers and writes a 503, so one thread keeps up with a flood; when it
+        // cannot, AbortPolicy throws and the dispatcher closes the connection
+        ThreadPoolExecutor overload = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(OVERLOAD_QUEUE_CAPACITY), namedThreads("http-overload-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        overload.allowCoreThreadTimeOut(true);
+        RequestExecutor[] self = new RequestExecutor[1];
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedThreads("http-worker-"),
+                (task, executor) -> {
+                    self[0].rejected.incrementAndGet();
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Request executor is shut down");
+                    }
+                    overload.execute(() -> {
+                        OVERLOADED.set(Boolean.TRUE);
+                        try {
+                            task.run();
+                        } finally {
+                            OVERLOADED.remove();
+                        }
+                    });
+                });
+        pool.allowCoreThreadTimeOut(true);
+        self[0] = new RequestExecutor("pool", pool);
+        return self[0];
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor} reflectively so the code still
+     * compiles and runs on JDK 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates a context on a server that answers {@code 503 Service Unavailable} instead of calling
+     * the handler when the request was rejected because the pool queue is full.
+     *
+     * @param server  The server.
+     * @param path    The context path.
+     * @param handler The handler.
+     * @return The context.
+     */
+    public HttpContext createContext(HttpServer server, String path, HttpHandler handler) {
+        HttpContext context = server.createContext(path, handler);
+        context.getFilters().add(OverloadFilter.INSTANCE);
+        return context;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        queued.incrementAndGet();
+        delegate.execute(() -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        });
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the number of requests accepted but not yet started.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of requests currently being handled.
+     *
+     * @return The active request count.
+     */
+    public int getActiveRequests() {
+        return active.get();
+    }
+
+    public long getCompletedRequests() {
+        return completed.get();
+    }
+
+    /**
+     * Returns how many requests were turned away because the pool queue was full.
+     *
+     * @return The rejected request count.
+     */
+    public long getRejectedRequests() {
+        return rejected.get();
+    }
+
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    private static final class OverloadFilter extends Filter {
+        static final OverloadFilter INSTANCE = new OverloadFilter();
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (OVERLOADED.get() == null) {
+                chain.doFilter(exchange);
+                return;
+            }
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        }
+
+        @Override
+        public String description() {
+            return "Answers requests rejected by a saturated pool with 503";
+        }
+    }
+}
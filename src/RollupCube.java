@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+/**
+ * Sums, counts, minimums and maximums of expense amounts per category and period.
+ *
+ * <p>A period is any consecutive integer: {@link ExpenseStore} keeps one cube of months, numbered
+ * {@code year * 12 + month - 1} (see {@link ExpenseDates#monthOf(int)}), and one of epoch days.
+ * Each category has one row of cells that grows to cover the periods it has expenses in. Adding an
+ * amount updates one cell in O(1). Removing one does too, unless it was the cell's minimum or
+ * maximum: then the owner recomputes that cell's extremes from its rows with
+ * {@link #setExtremes(int, int, long, long)}.
+ *
+ * <p>The cube is not thread-safe; {@link ExpenseStore} guards it with its totals lock.
+ */
+public class RollupCube {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  /**
+   * Aggregate of the expenses in one or more cells.
+   *
+   * @param sumCents The total in cents.
+   * @param count    The number of expenses.
+   * @param minCents The smallest amount in cents, {@link Long#MAX_VALUE} if there are none.
+   * @param maxCents The largest amount in cents, {@link Long#MIN_VALUE} if there are none.
+   */
+  public record Cell(long sumCents, long count, long minCents, long maxCents) {
+
+    public static final Cell EMPTY = new Cell(0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+
+    /**
+     * Combines this aggregate with another.
+     *
+     * @param other The other aggregate.
+     * @return The aggregate of both.
+     */
+    public Cell merge(Cell other) {
+      return new Cell(sumCents + other.sumCents, count + other.count,
+          Math.min(minCents, other.minCents), Math.max(maxCents, other.maxCents));
+    }
+  }
+
+  /**
+   * The cells of one category, indexed by period number minus {@code base}.
+   */
+  private static final class Row {
+    int base;
+    long[] sum = new long[0];
+    long[] count = new long[0];
+    long[] min = new long[0];
+    long[] max = new long[0];
+
+    void ensureCovers(int period) {
+      if (sum.length == 0) {
+        base = period - INITIAL_CAPACITY / 2;
+        resize(base, INITIAL_CAPACITY);
+        return;
+      }
+      if (period >= base && period < base + sum.length) {
+        return;
+      }
+      int low = Math.min(base, period);
+      int high = Math.max(base + sum.length, period + 1);
+      // Double the covered span so repeated growth stays amortized O(1)
+      int capacity = Math.max(sum.length * 2, high - low);
+      int newBase = period < base ? high - capacity : low;
+      resize(newBase, capacity);
+    }
+
+    private void resize(int newBase, int capacity) {
+      long[] newSum = new long[capacity];
+      long[] newCount = new long[capacity];
+      long[] newMin = new long[capacity];
+      long[] newMax = new long[capacity];
+      Arrays.fill(newMin, Long.MAX_VALUE);
+      Arrays.fill(newMax, Long.MIN_VALUE);
+      int offset = base - newBase;
+      System.arraycopy(sum, 0, newSum, offset, sum.length);
+      System.arraycopy(count, 0, newCount, offset, count.length);
+      System.arraycopy(min, 0, newMin, offset, min.length);
+      System.arraycopy(max, 0, newMax, offset, max.length);
+      base = newBase;
+      sum = newSum;
+      count = newCount;
+      min = newMin;
+      max = newMax;
+    }
+  }
+
+  private Row[] rows = new Row[0];
+
+  /**
+   * Adds an expense.
+   *
+   * @param categoryId The category id.
+   * @param period     The period number.
+   * @param cents      The amount in cents.
+   */
+  public void add(int categoryId, int period, long cents) {
+    Row row = row(categoryId);
+    row.ensureCovers(period);
+    int i = period - row.base;
+    row.sum[i] += cents;
+    row.count[i]++;
+    if (cents < row.min[i]) {
+      row.min[i] = cents;
+    }
+    if (cents > row.max[i]) {
+      row.max[i] = cents;
+    }
+  }
+
+  /**
+   * Removes an expense that was added before.
+   *
+   * @param categoryId The category id.
+   * @param period     The period number.
+   * @param cents      The amount in cents.
+   * @return True if the amount was the cell's minimum or maximum and other expenses remain in the
+   *     cell, so its extremes must be recomputed.
+   */
+  public boolean remove(int categoryId, int period, long cents) {
+    Row row = rows[categoryId];
+    int i = period - row.base;
+    row.sum[i] -= cents;
+    if (--row.count[i] == 0) {
+      row.min[i] = Long.MAX_VALUE;
+      row.max[i] = Long.MIN_VALUE;
+      return false;
+    }
+    return cents == row.min[i] || cents == row.max[i];
+  }
+
+  /**
+   * Sets the minimum and maximum of a cell, after {@link #remove(int, int, long)} asked for them.
+   *
+   * @param categoryId The category id.
+   * @param period     The period number.
+   * @param minCents   The smallest remaining amount in cents.
+   * @param maxCents   The largest remaining amount in cents.
+   */
+  public void setExtremes(int categoryId, int period, long minCents, long maxCents) {
+    Row row = rows[categoryId];
+    row.min[period - row.base] = minCents;
+    row.max[period - row.base] = maxCents;
+  }
+
+  /**
+   * Aggregates the cells of a range of periods.
+   *
+   * @param categoryId The category id, or -1 for all categories.
+   * @param fromPeriod The first period number, inclusive.
+   * @param toPeriod   The last period number, inclusive.
+   * @return The aggregate, {@link Cell#EMPTY} if there are no expenses.
+   */
+  public Cell get(int categoryId, int fromPeriod, int toPeriod) {
+    Row[] current = rows;
+    if (categoryId >= 0) {
+      return categoryId < current.length ? aggregate(current[categoryId], fromPeriod, toPeriod) : Cell.EMPTY;
+    }
+    Cell total = Cell.EMPTY;
+    for (Row row : current) {
+      total = total.merge(aggregate(row, fromPeriod, toPeriod));
+    }
+    return total;
+  }
+
+  /**
+   * Adds all cells of another cube to this one, for building a cube from partitions in parallel.
+   *
+   * @param other The other cube.
+   * @return This cube.
+   */
+  public RollupCube merge(RollupCube other) {
+    for (int categoryId = 0; categoryId < other.rows.length; categoryId++) {
+      Row from = other.rows[categoryId];
+      if (from == null || from.sum.length == 0) {
+        continue;
+      }
+      Row to = row(categoryId);
+      to.ensureCovers(from.base);
+      to.ensureCovers(from.base + from.sum.length - 1);
+      for (int i = 0; i < from.sum.length; i++) {
+        if (from.count[i] == 0) {
+          continue;
+        }
+        int j = from.base + i - to.base;
+        to.sum[j] += from.sum[i];
+        to.count[j] += from.count[i];
+        to.min[j] = Math.min(to.min[j], from.min[i]);
+        to.max[j] = Math.max(to.max[j], from.max[i]);
+      }
+    }
+    return this;
+  }
+
+  private static Cell aggregate(Row row, int fromPeriod, int toPeriod) {
+    if (row == null || row.sum.length == 0) {
+      return Cell.EMPTY;
+    }
+    // Compare before subtracting, so open bounds such as Integer.MIN_VALUE do not overflow
+    int last = row.base + row.sum.length - 1;
+    if (toPeriod < row.base || fromPeriod > last) {
+      return Cell.EMPTY;
+    }
+    int from = fromPeriod <= row.base ? 0 : fromPeriod - row.base;
+    int to = toPeriod >= last ? row.sum.length - 1 : toPeriod - row.base;
+    long sum = 0;
+    long count = 0;
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = from; i <= to; i++) {
+      sum += row.sum[i];
+      count += row.count[i];
+      min = Math.min(min, row.min[i]);
+      max = Math.max(max, row.max[i]);
+    }
+    return new Cell(sum, count, min, max);
+  }
+
+  private Row row(int categoryId) {
+    if (categoryId >= rows.length) {
+      rows = Arrays.copyOf(rows, categoryId + 1);
+    }
+    if (rows[categoryId] == null) {
+      rows[categoryId] = new Row();
+    }
+    return rows[categoryId];
+  }
+}
@@ -6,30 +6,51 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SimpleExpenseServer {
-    private static final String EXPENSES_FILE = "res/expenses.txt";
     private static final int PORT = getPort();
 
     public static void main(String[] args) throws IOException {
+        // Load the ledger once; handlers read it from memory
+        ExpenseRepository.getInstance();
+
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
 
+        // Requests run on a configurable executor (virtual threads or a bounded pool)
+        RequestExecutor executor = RequestExecutor.create();
+
         // Set up routes
-        server.createContext("/api/expenses", new ExpensesHandler());
-        server.createContext("/api/reports", new ReportsHandler());
-        server.createContext("/", new StaticFileHandler());
+        executor.createContext(server, "/api/expenses", new ExpensesHandler());
+        executor.createContext(server, "/api/expenses/batch", new ExpenseBatchHandler());
+        ReportCache reportCache = new ReportCache(ExpenseRepository.getInstance().getStore(), ReportCache.DEFAULT_MAX_BYTES);
+        executor.createContext(server, "/api/reports", new ReportsHandler(ExpenseRepository.getInstance().getStore(), reportCache));
+        executor.createContext(server, "/", new StaticFileHandler(StaticAssetCache.open("frontend", "/frontend/")));
+
+        // Live changes; open connections are served by the stream's own writer threads
+        ExpenseEventStream stream = ExpenseEventStream.open(ExpenseRepository.getInstance().getStore());
+        executor.createContext(server, "/api/stream", stream);
+        executor.createContext(server, "/api/metrics", new MetricsHandler(executor, stream, reportCache));
 
         // Start server
-        server.setExecutor(null);
+        server.setExecutor(executor);
         server.start();
 
-        System.out.println("Server started on port " + PORT);
-        System.out.println("Open http://localhost:" + PORT + "/ in your browser");
+        // Stop taking requests and close the log before the JVM exits; Log's own flush hook may
+        // already have run, so flush again for the messages logged here
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stream.close();
+            server.stop(1);
+            executor.shutdown();
+            ExpenseRepository.getInstance().close();
+            Log.info("Server stopped");
+            Log.flush();
+        }, "server-shutdown"));
+
+        Log.info("Server started on port " + PORT + " using " + executor.getMode() + " executor");
+        Log.info("Open http://localhost:" + PORT + "/ in your browser");
     }
 
     static class ExpensesHandler implements HttpHandler {
@@ -37,10 +58,10 @@ public class SimpleExpenseServer {
         public void handle(HttpExchange exchange) throws IOException {
             // Enable CORS
             exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
             exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
 
-            System.out.println("Received " + exchange.getRequestMethod() + " request to " + exchange.getRequestURI());
+            Log.debug(() -> "Received " + exchange.getRequestMethod() + " request to " + exchange.getRequestURI());
 
             // Handle preflight requests
             if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
@@ -49,43 +70,77 @@ public class SimpleExpenseServer {
             }
 
             if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
-                // Return all expenses
-                List<Map<String, Object>> expenses = loadExpenses();
-                System.out.println("Returning " + expenses.size() + " expenses to client");
-                String response = toJson(expenses);
-                System.out.println("JSON response: " + response);
-                sendResponse(exchange, response);
+                ExpenseQuery query;
+                try {
+                    query = ExpenseQuery.parse(exchange.getRequestURI().getRawQuery());
+                } catch (IllegalArgumentException e) {
+                    sendErrorResponse(exchange, e.getMessage());
+                    return;
+                }
+
+                // Stream the expenses, one page of them or the changes since a version, straight from the store
+                ExpenseSnapshot snapshot = ExpenseRepository.getInstance().getStore().snapshot();
+                if (ETags.notModified(exchange, ETags.of("expenses", snapshot.version()))) {
+                    return;
+                }
+                Log.debug(() -> "Returning " + (query.isPaged() ? "a page of " : "") + snapshot.size() + " expenses to client");
+                if (query.isDelta()) {
+                    ExpenseJson.sendChanges(exchange, ExpenseRepository.getInstance().getStore(), snapshot, query);
+                } else {
+                    ExpenseJson.send(exchange, snapshot, query);
+                }
             } else if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
                 // Add a new expense
-                String requestBody = readRequestBody(exchange);
-                System.out.println("Request body: " + requestBody);
-
-                try {
-                    // Parse JSON
-                    Map<String, Object> expenseData = parseJson(requestBody);
-                    System.out.println("Parsed data: " + expenseData);
-
-                    // Extract data
-                    String category = (String) expenseData.get("category");
-                    double amount = Double.parseDouble(expenseData.get("amount").toString());
-                    String date = (String) expenseData.get("date");
-
-                    // Validate data
-                    if (category == null || category.isEmpty() || date == null || date.isEmpty()) {
-                        sendErrorResponse(exchange, "Invalid data");
-                        return;
-                    }
+                try (JsonReader reader = JsonReader.forRequest(exchange)) {
+                    ExpenseRequest request = ExpenseRequest.read(reader);
+                    reader.endDocument();
 
-                    // Add expense to file
-                    addExpense(category, amount, date);
+                    // Validate and append to the log
+                    Expense expense = request.toExpense();
+                    int id = ExpenseRepository.getInstance().add(expense);
+                    Log.debug(() -> "Added expense: " + expense.getCategory() + " " + expense.getAmount() + " " + expense.getDate());
 
                     // Send success response
                     Map<String, Object> responseData = new HashMap<>();
                     responseData.put("success", true);
                     responseData.put("message", "Expense added successfully");
+                    responseData.put("id", id);
                     sendResponse(exchange, toJson(responseData));
+                } catch (IllegalArgumentException e) {
+                    sendErrorResponse(exchange, "Invalid request: " + e.getMessage());
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    Log.error("Error processing request: " + e.getMessage(), e);
+                    sendErrorResponse(exchange, "Error processing request: " + e.getMessage());
+                }
+            } else if (exchange.getRequestMethod().equalsIgnoreCase("PUT")
+                    || exchange.getRequestMethod().equalsIgnoreCase("DELETE")) {
+                // Update or delete one expense; the change is appended to the log
+                boolean delete = exchange.getRequestMethod().equalsIgnoreCase("DELETE");
+                try {
+                    int id = ExpenseRequest.parseId(exchange.getRequestURI().getPath());
+                    boolean found;
+                    if (delete) {
+                        found = ExpenseRepository.getInstance().remove(id);
+                    } else {
+                        Expense expense;
+                        try (JsonReader reader = JsonReader.forRequest(exchange)) {
+                            ExpenseRequest request = ExpenseRequest.read(reader);
+                            reader.endDocument();
+                            expense = request.toExpense();
+                        }
+                        found = ExpenseRepository.getInstance().update(id, expense);
+                    }
+
+                    Map<String, Object> responseData = new HashMap<>();
+                    responseData.put("success", found);
+                    responseData.put("message", !found ? "Expense not found"
+                            : delete ? "Expense deleted successfully" : "Expense updated successfully");
+                    responseData.put("id", id);
+                    sendResponse(exchange, toJson(responseData));
+                } catch (IllegalArgumentException e) {
+                    sendErrorResponse(exchange, "Invalid request: " + e.getMessage());
+                } catch (Exception e) {
+                    Log.error("Error processing request: " + e.getMessage(), e);
                     sendErrorResponse(exchange, "Error processing request: " + e.getMessage());
                 }
             } else {
@@ -102,65 +157,11 @@ public class SimpleExpenseServer {
 
         private void sendResponse(HttpExchange exchange, String response) throws IOException {
             exchange.getResponseHeaders().set("Content-Type", "application/json");
-            byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
-            exchange.sendResponseHeaders(200, responseBytes.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(responseBytes);
-                os.flush();
-            }
-            System.out.println("Response sent: " + response.substring(0, Math.min(100, response.length())) +
+            Compression.send(exchange, 200, response.getBytes(StandardCharsets.UTF_8));
+            Log.debug(() -> "Response sent: " + response.substring(0, Math.min(100, response.length())) +
                               (response.length() > 100 ? "..." : ""));
         }
 
-        private String readRequestBody(HttpExchange exchange) throws IOException {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
-                StringBuilder requestBody = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    requestBody.append(line);
-                }
-                return requestBody.toString();
-            }
-        }
-
-        private Map<String, Object> parseJson(String json) {
-            Map<String, Object> result = new HashMap<>();
-
-            // Simple JSON parser for demo purposes
-            json = json.trim();
-            if (json.startsWith("{") && json.endsWith("}")) {
-                json = json.substring(1, json.length() - 1);
-                String[] pairs = json.split(",");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split(":");
-                    if (keyValue.length == 2) {
-                        String key = keyValue[0].trim();
-                        if (key.startsWith("\"") && key.endsWith("\"")) {
-                            key = key.substring(1, key.length() - 1);
-                        }
-
-                        String value = keyValue[1].trim();
-                        if (value.startsWith("\"") && value.endsWith("\"")) {
-                            value = value.substring(1, value.length() - 1);
-                            result.put(key, value);
-                        } else if (value.equals("true")) {
-                            result.put(key, true);
-                        } else if (value.equals("false")) {
-                            result.put(key, false);
-                        } else {
-                            try {
-                                result.put(key, Double.parseDouble(value));
-                            } catch (NumberFormatException e) {
-                                result.put(key, value);
-                            }
-                        }
-                    }
-                }
-            }
-
-            return result;
-        }
-
         private String toJson(Object obj) {
             if (obj instanceof Map) {
                 Map<?, ?> map = (Map<?, ?>) obj;
@@ -172,10 +173,10 @@ public class SimpleExpenseServer {
                         sb.append(",");
                     }
                     first = false;
-                    sb.append("\"").append(entry.getKey()).append("\":");
+                    sb.append(JsonWriter.quote(String.valueOf(entry.getKey()))).append(":");
                     Object value = entry.getValue();
                     if (value instanceof String) {
-                        sb.append("\"").append(value).append("\"");
+                        sb.append(JsonWriter.quote((String) value));
                     } else if (value instanceof Map || value instanceof List) {
                         sb.append(toJson(value));
                     } else {
@@ -195,7 +196,7 @@ public class SimpleExpenseServer {
                     }
                     first = false;
                     if (item instanceof String) {
-                        sb.append("\"").append(item).append("\"");
+                        sb.append(JsonWriter.quote((String) item));
                     } else if (item instanceof Map || item instanceof List) {
                         sb.append(toJson(item));
                     } else {
@@ -209,121 +210,30 @@ public class SimpleExpenseServer {
             }
         }
 
-        private List<Map<String, Object>> loadExpenses() {
-            List<Map<String, Object>> expenses = new ArrayList<>();
-
-            try {
-                System.out.println("Loading expenses from file: " + EXPENSES_FILE);
-                File file = new File(EXPENSES_FILE);
-                if (!file.exists()) {
-                    System.out.println("Expenses file does not exist!");
-                    return expenses;
-                }
-
-                List<String> lines = Files.readAllLines(Paths.get(EXPENSES_FILE), StandardCharsets.UTF_8);
-                System.out.println("Read " + lines.size() + " lines from expenses file");
-
-                for (String line : lines) {
-                    line = line.trim();
-                    if (line.isEmpty()) {
-                        continue;
-                    }
-
-                    System.out.println("Processing line: " + line);
-                    // Find the last two parts (amount and date) and consider everything before as the category
-                    int lastSpace = line.lastIndexOf(' ');
-                    if (lastSpace > 0) {
-                        String date = line.substring(lastSpace + 1);
-                        String remainingLine = line.substring(0, lastSpace).trim();
-
-                        lastSpace = remainingLine.lastIndexOf(' ');
-                        if (lastSpace > 0) {
-                            String amountStr = remainingLine.substring(lastSpace + 1);
-                            String category = remainingLine.substring(0, lastSpace).trim();
-                            try {
-                                double amount = Double.parseDouble(amountStr);
-
-                                // Normalize date format if needed
-                                String normalizedDate = normalizeDate(date);
-
-                                // Use the category as is - no translation needed
-                                String englishCategory = category;
-
-                                System.out.println("Parsed expense: category=" + englishCategory + ", amount=" + amount + ", date=" + normalizedDate);
-
-                                Map<String, Object> expense = new HashMap<>();
-                                expense.put("category", englishCategory);
-                                expense.put("amount", amount);
-                                expense.put("date", normalizedDate);
-
-                                expenses.add(expense);
-                            } catch (NumberFormatException e) {
-                                System.out.println("Invalid amount format in line: " + line);
-                            }
-                        } else {
-                            System.out.println("Invalid line format (missing amount): " + line);
-                        }
-                    } else {
-                        System.out.println("Invalid line format (missing date): " + line);
-                    }
-                }
-
-                System.out.println("Loaded " + expenses.size() + " expenses");
-            } catch (IOException e) {
-                System.err.println("Error loading expenses: " + e.getMessage());
-                e.printStackTrace();
-            }
-
-            return expenses;
-        }
-
-
-
-        /**
-         * Normalizes date format to yyyy-MM-dd for consistent handling
-         */
-        private String normalizeDate(String date) {
-            // Check if date is in DD.MM.YYYY format
-            if (date.matches("\\d{2}\\.\\d{2}\\.\\d{4}")) {
-                String[] parts = date.split("\\.");
-                return parts[2] + "-" + parts[1] + "-" + parts[0];
-            }
-            // Check if date is in MM/DD/YYYY format
-            else if (date.matches("\\d{2}/\\d{2}/\\d{4}")) {
-                String[] parts = date.split("/");
-                return parts[2] + "-" + parts[0] + "-" + parts[1];
-            }
-            // If already in YYYY-MM-DD format or unknown format, return as is
-            return date;
-        }
-
-        private void addExpense(String category, double amount, String date) throws IOException {
-            // Make sure the directory exists
-            File file = new File(EXPENSES_FILE);
-            File parent = file.getParentFile();
-            if (parent != null && !parent.exists()) {
-                parent.mkdirs();
-            }
+    }
 
-            // Append to file
-            try (FileWriter writer = new FileWriter(EXPENSES_FILE, true)) {
-                writer.write(category + " " + amount + " " + date + "\n");
-            }
+    static class StaticFileHandler implements HttpHandler {
+        private final StaticAssetCache assets;
 
-            System.out.println("Added expense: " + category + " " + amount + " " + date);
+        StaticFileHandler(StaticAssetCache assets) {
+            this.assets = assets;
         }
-    }
 
-    static class StaticFileHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String path = exchange.getRequestURI().getPath();
-            System.out.println("Requested path: " + path);
+            String requestPath = exchange.getRequestURI().getPath();
+            Log.debug(() -> "Requested path: " + requestPath);
+            String path = requestPath;
 
             // Default to index.html for root path
             if (path.equals("/")) {
                 path = "/frontend/index.html";
-                System.out.println("Redirecting to index.html");
+                Log.debug(() -> "Redirecting to index.html");
+            }
+
+            // Frontend assets are served from the in-memory index
+            if (assets.serve(exchange, path)) {
+                return;
             }
 
             // Remove leading slash
@@ -338,6 +248,12 @@ public class SimpleExpenseServer {
                 String contentType = getContentType(path);
                 exchange.getResponseHeaders().set("Content-Type", contentType);
 
+                // Send a cached compressed copy if the client accepts one
+                if (Compression.sendCompressedAsset(exchange, file.getAbsolutePath(), file.lastModified(),
+                        file.length(), contentType, () -> Files.readAllBytes(file.toPath()))) {
+                    return;
+                }
+
                 // Send file
                 exchange.sendResponseHeaders(200, file.length());
                 try (OutputStream os = exchange.getResponseBody();
@@ -368,7 +284,11 @@ public class SimpleExpenseServer {
                 buffer.flush();
                 byte[] resourceData = buffer.toByteArray();
 
-                // Send resource
+                // Send resource, compressed once per coding if the client accepts it
+                if (Compression.sendCompressedAsset(exchange, "classpath:" + path, 0, resourceData.length,
+                        contentType, () -> resourceData)) {
+                    return;
+                }
                 exchange.sendResponseHeaders(200, resourceData.length);
                 try (OutputStream os = exchange.getResponseBody()) {
                     os.write(resourceData);
@@ -391,7 +311,7 @@ public class SimpleExpenseServer {
             try {
                 return Integer.parseInt(portEnv);
             } catch (NumberFormatException e) {
-                System.out.println("Invalid PORT environment variable: " + portEnv);
+                Log.warn("Invalid PORT environment variable: " + portEnv);
             }
         }
         return 8080; // Default port
@@ -7,44 +7,74 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.Date;
 
 public class SimpleHttpServer {
+    // Directories the legacy static files are looked up in, in order
+    private static final String[] STATIC_ROOTS = {
+            "Expenses/standalone-web", "standalone-web", "Expenses/src/web", "src/web"};
+
     private final int port;
     private final BudgetApp budgetApp;
     private final ExpenseCategoryManager categoryManager;
-    private final List<Expense> expenses;
+    private final ExpenseStore store;
     private HttpServer server;
+    private RequestExecutor executor;
+    private StaticAssetCache assets;
+    private ExpenseEventStream stream;
+    private ReportCache reportCache;
 
     public SimpleHttpServer(int port, BudgetApp budgetApp) {
         this.port = port;
         this.budgetApp = budgetApp;
         this.categoryManager = budgetApp.categoryManager;
-        this.expenses = budgetApp.expenses;
+        this.store = budgetApp.expenses;
     }
 
     public void start() throws IOException {
         server = HttpServer.create(new InetSocketAddress(port), 0);
 
+        // Requests run on a configurable executor (virtual threads or a bounded pool)
+        executor = RequestExecutor.create();
+
         // API endpoints
-        server.createContext("/api/expenses", new ExpensesHandler());
-        server.createContext("/api/categories", new CategoriesHandler());
-        server.createContext("/api/reports", new ReportsHandler());
+        executor.createContext(server, "/api/expenses", new ExpensesHandler());
+        executor.createContext(server, "/api/expenses/batch", new ExpenseBatchHandler());
+        executor.createContext(server, "/api/categories", new CategoriesHandler());
+        reportCache = new ReportCache(store, ReportCache.DEFAULT_MAX_BYTES);
+        executor.createContext(server, "/api/reports", new ReportsHandler(store, reportCache));
+
+        // Live changes; open connections are served by the stream's own writer threads
+        stream = ExpenseEventStream.open(store);
+        executor.createContext(server, "/api/stream", stream);
+        executor.createContext(server, "/api/metrics", new MetricsHandler(executor, stream, reportCache));
 
         // Static files
-        server.createContext("/", new StaticFileHandler());
+        assets = StaticAssetCache.open("frontend", "/frontend/");
+        executor.createContext(server, "/", new StaticFileHandler());
 
-        server.setExecutor(null); // Use the default executor
+        server.setExecutor(executor);
         server.start();
-        System.out.println("Server started on port " + port);
+        Log.info("Server started on port " + port + " using " + executor.getMode() + " executor");
     }
 
     public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
         if (server != null) {
             server.stop(0);
         }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (assets != null) {
+            try {
+                assets.close();
+            } catch (IOException e) {
+                Log.warn("Error closing static asset cache: " + e.getMessage());
+            }
+        }
     }
 
     private class ExpensesHandler implements HttpHandler {
@@ -52,87 +82,123 @@ public class SimpleHttpServer {
         public void handle(HttpExchange exchange) throws IOException {
             // Enable CORS
             exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
             exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
 
-            System.out.println("Received " + exchange.getRequestMethod() + " request to " + exchange.getRequestURI());
+            Log.debug(() -> "Received " + exchange.getRequestMethod() + " request to " + exchange.getRequestURI());
 
             if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
-                System.out.println("Handling OPTIONS request (CORS preflight)");
+                Log.debug(() -> "Handling OPTIONS request (CORS preflight)");
                 exchange.sendResponseHeaders(204, -1);
                 return;
             }
 
+            if (exchange.getRequestMethod().equalsIgnoreCase("PUT")
+                    || exchange.getRequestMethod().equalsIgnoreCase("DELETE")) {
+                handleExpenseById(exchange);
+                return;
+            }
+
             if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
-                // Return all expenses
-                List<Map<String, Object>> expensesList = new ArrayList<>();
-                System.out.println("Preparing to return " + expenses.size() + " expenses");
-
-                for (Expense expense : expenses) {
-                    Map<String, Object> expenseMap = new HashMap<>();
-
-                    // Handle date format - could be DD.MM.YYYY, MM/DD/YYYY, or YYYY-MM-DD
-                    String dateStr = expense.getDate();
-                    String normalizedDate = normalizeDate(dateStr);
-
-                    // Debug output
-                    System.out.println("Processing expense: category=" + expense.getCategory() +
-                                     ", amount=" + expense.getAmount() +
-                                     ", date=" + dateStr + " -> " + normalizedDate);
-
-                    expenseMap.put("category", expense.getCategory());
-                    expenseMap.put("amount", expense.getAmount());
-                    expenseMap.put("date", normalizedDate);
-                    expensesList.add(expenseMap);
+                ExpenseQuery query;
+                try {
+                    query = ExpenseQuery.parse(exchange.getRequestURI().getRawQuery());
+                } catch (IllegalArgumentException e) {
+                    sendErrorResponse(exchange, 400, e.getMessage());
+                    return;
                 }
 
-                String response = toJson(expensesList);
-                sendJsonResponse(exchange, 200, response);
+                // Stream the expenses, one page of them or the changes since a version, straight from the store
+                ExpenseSnapshot snapshot = store.snapshot();
+                if (ETags.notModified(exchange, ETags.of("expenses", snapshot.version()))) {
+                    return;
+                }
+                Log.debug(() -> "Preparing to return " + (query.isPaged() ? "a page of " : "") + snapshot.size() + " expenses");
+                if (query.isDelta()) {
+                    ExpenseJson.sendChanges(exchange, store, snapshot, query);
+                } else {
+                    ExpenseJson.send(exchange, snapshot, query);
+                }
             } else if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
                 // Add a new expense
-                String requestBody = readRequestBody(exchange);
-                System.out.println("Received expense request: " + requestBody);
-
-                Map<String, Object> expenseData = fromJson(requestBody);
-                System.out.println("Parsed expense data: " + expenseData);
-
-                String category = (String) expenseData.get("category");
-                double amount = Double.parseDouble(expenseData.get("amount").toString());
-                String date = (String) expenseData.get("date");
-
-                System.out.println("Extracted expense details: category=" + category + ", amount=" + amount + ", date=" + date);
-
-                // Convert date to ISO format (YYYY-MM-DD) if it's not already
-                if (date.contains("/")) {
-                    String[] parts = date.split("/");
-                    if (parts.length == 3) {
-                        // Convert from MM/DD/YYYY to YYYY-MM-DD
-                        date = parts[2] + "-" + parts[0] + "-" + parts[1];
-                    }
+                Expense expense;
+                try (JsonReader reader = JsonReader.forRequest(exchange)) {
+                    ExpenseRequest request = ExpenseRequest.read(reader);
+                    reader.endDocument();
+                    expense = request.toExpense();
+                } catch (IllegalArgumentException e) {
+                    sendBadRequest(exchange, e);
+                    return;
                 }
 
-                Expense expense = new Expense(category, amount, date);
-                expenses.add(expense);
-
-                // Save expenses to file
+                // Append the new expense to the log
+                int id;
                 try {
-                    System.out.println("Saving expense to file: " + expense.getCategory() + " " + expense.getAmount() + " " + expense.getDate());
-                    Expense.saveExpensesToFile(expenses, "res/expenses.txt");
-                    System.out.println("Expense saved successfully");
-                } catch (Exception e) {
-                    System.err.println("Error saving expense to file: " + e.getMessage());
-                    e.printStackTrace();
+                    Log.debug(() -> "Saving expense to log: " + expense.getCategory() + " " + expense.getAmount() + " " + expense.getDate());
+                    id = budgetApp.recordExpense(expense);
+                    Log.debug(() -> "Expense saved successfully");
+                } catch (IllegalArgumentException e) {
+                    sendErrorResponse(exchange, 400, e.getMessage());
+                    return;
+                } catch (IOException e) {
+                    Log.error("Error saving expense to log: " + e.getMessage(), e);
+                    sendErrorResponse(exchange, 500, "Failed to save expense");
+                    return;
                 }
 
                 Map<String, Object> response = new HashMap<>();
                 response.put("success", true);
                 response.put("message", "Expense added successfully");
+                response.put("id", id);
 
                 sendJsonResponse(exchange, 200, toJson(response));
             } else {
                 sendErrorResponse(exchange, 405, "Method Not Allowed");
             }
         }
+
+        /**
+         * Handles {@code PUT /api/expenses/{id}} and {@code DELETE /api/expenses/{id}}. The change
+         * is appended to the expense log as an update or a tombstone.
+         */
+        private void handleExpenseById(HttpExchange exchange) throws IOException {
+            boolean delete = exchange.getRequestMethod().equalsIgnoreCase("DELETE");
+            boolean found;
+            int id;
+            try {
+                id = ExpenseRequest.parseId(exchange.getRequestURI().getPath());
+                if (delete) {
+                    found = budgetApp.repository.remove(id);
+                } else {
+                    Expense expense;
+                    try (JsonReader reader = JsonReader.forRequest(exchange)) {
+                        ExpenseRequest request = ExpenseRequest.read(reader);
+                        reader.endDocument();
+                        expense = request.toExpense();
+                    }
+                    found = budgetApp.repository.update(id, expense);
+                }
+            } catch (IllegalArgumentException e) {
+                sendBadRequest(exchange, e);
+                return;
+            } catch (IOException e) {
+                Log.error("Error saving expense change to log: " + e.getMessage(), e);
+                sendErrorResponse(exchange, 500, "Failed to save expense");
+                return;
+            }
+
+            if (!found) {
+                sendErrorResponse(exchange, 404, "Expense not found: " + id);
+                return;
+            }
+            Log.debug(() -> (delete ? "Deleted" : "Updated") + " expense " + id);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", delete ? "Expense deleted successfully" : "Expense updated successfully");
+            response.put("id", id);
+            sendJsonResponse(exchange, 200, toJson(response));
+        }
     }
 
     private class CategoriesHandler implements HttpHandler {
@@ -143,30 +209,44 @@ public class SimpleHttpServer {
             exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
             exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
 
-            System.out.println("Received " + exchange.getRequestMethod() + " request to " + exchange.getRequestURI());
+            Log.debug(() -> "Received " + exchange.getRequestMethod() + " request to " + exchange.getRequestURI());
 
             if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
-                System.out.println("Handling OPTIONS request (CORS preflight)");
+                Log.debug(() -> "Handling OPTIONS request (CORS preflight)");
                 exchange.sendResponseHeaders(204, -1);
                 return;
             }
 
             if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
                 // Return all categories
+                if (ETags.notModified(exchange, ETags.of("categories", categoryManager.getVersion()))) {
+                    return;
+                }
                 List<String> categories = categoryManager.getCategories();
                 String response = toJson(categories);
                 sendJsonResponse(exchange, 200, response);
             } else if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
                 // Add a new category
-                String requestBody = readRequestBody(exchange);
-                System.out.println("Received category request: " + requestBody);
-
-                Map<String, Object> categoryData = fromJson(requestBody);
-                System.out.println("Parsed category data: " + categoryData);
-
-                String category = (String) categoryData.get("category");
-                System.out.println("Adding category: " + category);
-                categoryManager.addCategory(category);
+                String category = null;
+                try (JsonReader reader = JsonReader.forRequest(exchange)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("category")) {
+                            category = reader.nextStringOrNull();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    reader.endDocument();
+                } catch (IllegalArgumentException e) {
+                    sendBadRequest(exchange, e);
+                    return;
+                }
+                String added = category;
+                Log.debug(() -> "Adding category: " + added);
+                boolean changed = categoryManager.addCategory(category);
+                Log.debug(() -> (changed ? "Added category: " : "Category not added: ") + added);
 
                 Map<String, Object> response = new HashMap<>();
                 response.put("success", true);
@@ -176,18 +256,22 @@ public class SimpleHttpServer {
             } else if (exchange.getRequestMethod().equalsIgnoreCase("DELETE")) {
                 // Delete a category
                 String path = exchange.getRequestURI().getPath();
-                String category = path.substring(path.lastIndexOf('/') + 1);
-                System.out.println("Deleting category from path: " + path + ", extracted category: " + category);
+                String encoded = path.substring(path.lastIndexOf('/') + 1);
+                Log.debug(() -> "Deleting category from path: " + path + ", extracted category: " + encoded);
 
                 // URL decode the category name
+                String category = encoded;
                 try {
-                    category = java.net.URLDecoder.decode(category, "UTF-8");
-                    System.out.println("URL decoded category: " + category);
+                    String decoded = java.net.URLDecoder.decode(encoded, "UTF-8");
+                    Log.debug(() -> "URL decoded category: " + decoded);
+                    category = decoded;
                 } catch (Exception e) {
-                    System.err.println("Error decoding category name: " + e.getMessage());
+                    Log.warn("Error decoding category name: " + e.getMessage());
                 }
 
-                categoryManager.removeCategory(category);
+                String removed = category;
+                boolean changed = categoryManager.removeCategory(removed);
+                Log.debug(() -> (changed ? "Removed category: " : "Category not found: ") + removed);
 
                 Map<String, Object> response = new HashMap<>();
                 response.put("success", true);
@@ -200,235 +284,49 @@ public class SimpleHttpServer {
         }
     }
 
-    private class ReportsHandler implements HttpHandler {
+    private class StaticFileHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            // Enable CORS
-            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+            String requestPath = exchange.getRequestURI().getPath();
+            Log.debug(() -> "Received static file request for: " + requestPath);
 
-            System.out.println("Received " + exchange.getRequestMethod() + " request to " + exchange.getRequestURI());
-
-            if (exchange.getRequestMethod().equalsIgnoreCase("OPTIONS")) {
-                System.out.println("Handling OPTIONS request (CORS preflight)");
-                exchange.sendResponseHeaders(204, -1);
+            // Frontend assets are served from the in-memory index
+            String assetPath = requestPath.equals("/") || requestPath.equals("/index.html")
+                    ? "/frontend/index.html" : requestPath;
+            if (assets.serve(exchange, assetPath)) {
                 return;
             }
 
-            if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
-                // Generate a report
-                String requestBody = readRequestBody(exchange);
-                System.out.println("Received report request: " + requestBody);
-
-                Map<String, Object> reportData = fromJson(requestBody);
-                System.out.println("Parsed report data: " + reportData);
-
-                String reportType = (String) reportData.get("type");
-                System.out.println("Report type: " + reportType);
-
-                Map<String, Object> response = new HashMap<>();
-
-                if ("category".equals(reportType)) {
-                    String category = (String) reportData.get("category");
-                    String startDate = (String) reportData.get("startDate");
-                    String endDate = (String) reportData.get("endDate");
-
-                    // Generate category report
-                    response = generateCategoryReport(category, startDate, endDate);
-                } else if ("month-comparison".equals(reportType)) {
-                    // Generate month comparison report
-                    response = generateMonthComparisonReport();
-                } else if ("year-comparison".equals(reportType)) {
-                    // Generate year comparison report
-                    response = generateYearComparisonReport();
-                } else {
-                    sendErrorResponse(exchange, 400, "Invalid report type");
-                    return;
-                }
-
-                sendJsonResponse(exchange, 200, toJson(response));
-            } else {
-                sendErrorResponse(exchange, 405, "Method Not Allowed");
-            }
-        }
-
-        private Map<String, Object> generateCategoryReport(String category, String startDate, String endDate) {
-            Map<String, Object> report = new HashMap<>();
-            report.put("type", "category");
-            report.put("category", category);
-            report.put("startDate", startDate);
-            report.put("endDate", endDate);
-            
-            // Create report generator
-            ExpenseReportGenerator reportGenerator = new ExpenseReportGenerator(expenses);
-            
-            // Get report data
-            List<Map<String, Object>> expenseItems = new ArrayList<>();
-            double total = 0;
-            
-            // Filter expenses by category and date range
-            for (Expense expense : expenses) {
-                Date expenseDate = null;
-                Date start = null;
-                Date end = null;
-                
-                try {
-                    // Parse dates carefully
-                    expenseDate = reportGenerator.parseDate(expense.getDate());
-                    start = reportGenerator.parseDate(normalizeDate(startDate));
-                    end = reportGenerator.parseDate(normalizeDate(endDate));
-                    
-                    // Check if the expense matches category and date range
-                    if (expenseDate != null && start != null && end != null && 
-                        (category.equals("all") || expense.getCategory().equals(category)) &&
-                        !expenseDate.before(start) && !expenseDate.after(end)) {
-                        
-                        Map<String, Object> item = new HashMap<>();
-                        item.put("category", expense.getCategory());
-                        item.put("amount", expense.getAmount());
-                        item.put("date", expense.getDate());
-                        expenseItems.add(item);
-                        
-                        total += expense.getAmount();
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error processing expense for report: " + e.getMessage());
-                }
-            }
-            
-            report.put("expenses", expenseItems);
-            report.put("total", total);
-            
-            return report;
-        }
-
-        private Map<String, Object> generateMonthComparisonReport() {
-            Map<String, Object> report = new HashMap<>();
-            report.put("type", "month-comparison");
-            
-            // Create report generator
-            ExpenseReportGenerator reportGenerator = new ExpenseReportGenerator(expenses);
-            
-            // Get current and previous month
-            Calendar currentMonthStart = Calendar.getInstance();
-            currentMonthStart.set(Calendar.DAY_OF_MONTH, 1);
-            
-            Calendar previousMonthStart = Calendar.getInstance();
-            previousMonthStart.add(Calendar.MONTH, -1);
-            previousMonthStart.set(Calendar.DAY_OF_MONTH, 1);
-            
-            // Format month names
-            SimpleDateFormat monthFormat = new SimpleDateFormat("MMMM yyyy", Locale.ENGLISH);
-            String currentMonthName = monthFormat.format(currentMonthStart.getTime());
-            String previousMonthName = monthFormat.format(previousMonthStart.getTime());
-            
-            // Get expense totals
-            double currentTotal = reportGenerator.getTotalExpensesInMonth(currentMonthStart);
-            double previousTotal = reportGenerator.getTotalExpensesInMonth(previousMonthStart);
-            
-            // Calculate difference and percentage change
-            double difference = currentTotal - previousTotal;
-            double percentageChange = 0;
-            if (previousTotal > 0) {
-                percentageChange = (difference / previousTotal) * 100;
-            }
-            
-            report.put("currentMonth", currentMonthName);
-            report.put("previousMonth", previousMonthName);
-            report.put("labels", Arrays.asList("Current Month", "Previous Month"));
-            report.put("values", Arrays.asList(currentTotal, previousTotal));
-            report.put("currentTotal", currentTotal);
-            report.put("previousTotal", previousTotal);
-            report.put("difference", difference);
-            report.put("percentageChange", percentageChange);
-            
-            return report;
-        }
-
-        private Map<String, Object> generateYearComparisonReport() {
-            Map<String, Object> report = new HashMap<>();
-            report.put("type", "year-comparison");
-            
-            // Create report generator
-            ExpenseReportGenerator reportGenerator = new ExpenseReportGenerator(expenses);
-            
-            // Get current and previous year
-            Calendar currentDate = Calendar.getInstance();
-            int currentYear = currentDate.get(Calendar.YEAR);
-            int previousYear = currentYear - 1;
-            
-            // Get expense totals
-            double currentTotal = reportGenerator.getTotalExpensesForYear(currentYear);
-            double previousTotal = reportGenerator.getTotalExpensesForYear(previousYear);
-            
-            // Calculate difference and percentage change
-            double difference = currentTotal - previousTotal;
-            double percentageChange = 0;
-            if (previousTotal > 0) {
-                percentageChange = (difference / previousTotal) * 100;
-            }
-            
-            report.put("currentYear", String.valueOf(currentYear));
-            report.put("previousYear", String.valueOf(previousYear));
-            report.put("labels", Arrays.asList("Current Year", "Previous Year"));
-            report.put("values", Arrays.asList(currentTotal, previousTotal));
-            report.put("currentTotal", currentTotal);
-            report.put("previousTotal", previousTotal);
-            report.put("difference", difference);
-            report.put("percentageChange", percentageChange);
-            
-            return report;
-        }
-    }
-
-    private class StaticFileHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String path = exchange.getRequestURI().getPath();
-            System.out.println("Received static file request for: " + path);
-
             // Default to index.html for root path
-            if (path.equals("/")) {
+            String path = requestPath;
+            if (requestPath.equals("/")) {
                 path = "/index.html";
-                System.out.println("Redirecting to index.html");
+                Log.debug(() -> "Redirecting to index.html");
             }
 
-            // Try multiple possible locations for the file
+            // Try Expenses/standalone-web, standalone-web, Expenses/src/web and src/web in turn
             File file = null;
-            String filePath = null;
-
-            // First try Expenses/standalone-web
-            filePath = "Expenses/standalone-web" + path;
-            file = new File(filePath);
-            System.out.println("Trying file path: " + file.getAbsolutePath());
-
-            // If not found, try standalone-web
-            if (!file.exists() || file.isDirectory()) {
-                filePath = "standalone-web" + path;
-                file = new File(filePath);
-                System.out.println("Trying alternate file path: " + file.getAbsolutePath());
-            }
-
-            // If not found, try Expenses/src/web
-            if (!file.exists() || file.isDirectory()) {
-                filePath = "Expenses/src/web" + path;
-                file = new File(filePath);
-                System.out.println("Trying alternate file path: " + file.getAbsolutePath());
-            }
-
-            // If not found, try src/web
-            if (!file.exists() || file.isDirectory()) {
-                filePath = "src/web" + path;
-                file = new File(filePath);
-                System.out.println("Trying alternate file path: " + file.getAbsolutePath());
+            for (String root : STATIC_ROOTS) {
+                File candidate = new File(root + path);
+                Log.debug(() -> "Trying file path: " + candidate.getAbsolutePath());
+                if (candidate.exists() && !candidate.isDirectory()) {
+                    file = candidate;
+                    break;
+                }
             }
 
-            if (file.exists() && !file.isDirectory()) {
+            if (file != null) {
                 // Determine content type
                 String contentType = getContentType(path);
                 exchange.getResponseHeaders().set("Content-Type", contentType);
-                System.out.println("Serving file: " + file.getAbsolutePath() + " with content type: " + contentType);
+                File served = file;
+                Log.debug(() -> "Serving file: " + served.getAbsolutePath() + " with content type: " + contentType);
+
+                // Send a cached compressed copy if the client accepts one
+                if (Compression.sendCompressedAsset(exchange, file.getAbsolutePath(), file.lastModified(),
+                        file.length(), contentType, () -> Files.readAllBytes(served.toPath()))) {
+                    return;
+                }
 
                 // Send the file
                 exchange.sendResponseHeaders(200, file.length());
@@ -442,7 +340,8 @@ public class SimpleHttpServer {
                 }
             } else {
                 // File not found
-                System.out.println("File not found: " + path);
+                String missing = path;
+                Log.debug(() -> "File not found: " + missing);
                 sendErrorResponse(exchange, 404, "File Not Found: " + path);
             }
         }
@@ -480,7 +379,7 @@ public class SimpleHttpServer {
                 }
                 Object item = list.get(i);
                 if (item instanceof String) {
-                    sb.append("\"").append(item).append("\"");
+                    sb.append(JsonWriter.quote((String) item));
                 } else if (item instanceof Map) {
                     sb.append(toJson(item));
                 } else {
@@ -499,10 +398,10 @@ public class SimpleHttpServer {
                     sb.append(",");
                 }
                 first = false;
-                sb.append("\"").append(entry.getKey()).append("\":");
+                sb.append(JsonWriter.quote(String.valueOf(entry.getKey()))).append(":");
                 Object value = entry.getValue();
                 if (value instanceof String) {
-                    sb.append("\"").append(value).append("\"");
+                    sb.append(JsonWriter.quote((String) value));
                 } else if (value instanceof List || value instanceof Map) {
                     sb.append(toJson(value));
                 } else {
@@ -516,168 +415,14 @@ public class SimpleHttpServer {
         }
     }
 
-    private Map<String, Object> fromJson(String json) {
-        // Very simple JSON parser for demo purposes
-        Map<String, Object> result = new HashMap<>();
-        try {
-            json = json.trim();
-            System.out.println("Parsing JSON: " + json);
-
-            // Check if the JSON is valid
-            if (!json.startsWith("{") || !json.endsWith("}")) {
-                System.err.println("Invalid JSON format: " + json);
-                return result;
-            }
-
-            // Extract the content between the curly braces
-            json = json.substring(1, json.length() - 1).trim();
-
-            // Split by commas, but respect nested objects and arrays
-            List<String> pairs = new ArrayList<>();
-            int depth = 0;
-            StringBuilder currentPair = new StringBuilder();
-
-            for (int i = 0; i < json.length(); i++) {
-                char c = json.charAt(i);
-                if (c == '{' || c == '[') {
-                    depth++;
-                    currentPair.append(c);
-                } else if (c == '}' || c == ']') {
-                    depth--;
-                    currentPair.append(c);
-                } else if (c == ',' && depth == 0) {
-                    pairs.add(currentPair.toString().trim());
-                    currentPair = new StringBuilder();
-                } else {
-                    currentPair.append(c);
-                }
-            }
-
-            if (currentPair.length() > 0) {
-                pairs.add(currentPair.toString().trim());
-            }
-
-            // Process each key-value pair
-            for (String pair : pairs) {
-                System.out.println("Processing pair: " + pair);
-
-                // Find the colon that separates key and value
-                int colonIndex = -1;
-                boolean inQuotes = false;
-                for (int i = 0; i < pair.length(); i++) {
-                    char c = pair.charAt(i);
-                    if (c == '"') {
-                        inQuotes = !inQuotes;
-                    } else if (c == ':' && !inQuotes) {
-                        colonIndex = i;
-                        break;
-                    }
-                }
-
-                if (colonIndex == -1) {
-                    System.err.println("Invalid key-value pair: " + pair);
-                    continue;
-                }
-
-                // Extract key and value
-                String key = pair.substring(0, colonIndex).trim();
-                String value = pair.substring(colonIndex + 1).trim();
-
-                // Remove quotes from key
-                if (key.startsWith("\"") && key.endsWith("\"")) {
-                    key = key.substring(1, key.length() - 1);
-                }
-
-                System.out.println("Key: " + key + ", Value: " + value);
-
-                // Process value based on type
-                if (value.startsWith("\"") && value.endsWith("\"")) {
-                    // String value
-                    value = value.substring(1, value.length() - 1);
-                    result.put(key, value);
-                } else if (value.equals("true")) {
-                    // Boolean true
-                    result.put(key, true);
-                } else if (value.equals("false")) {
-                    // Boolean false
-                    result.put(key, false);
-                } else if (value.startsWith("{") && value.endsWith("}")) {
-                    // Nested object - not handling for simplicity
-                    result.put(key, value);
-                } else if (value.startsWith("[") && value.endsWith("]")) {
-                    // Array - not handling for simplicity
-                    result.put(key, value);
-                } else {
-                    // Number or other value
-                    try {
-                        result.put(key, Double.parseDouble(value));
-                    } catch (NumberFormatException e) {
-                        result.put(key, value);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Error parsing JSON: " + e.getMessage());
-            e.printStackTrace();
-        }
-
-        System.out.println("Parsed result: " + result);
-        return result;
-    }
-
-    /**
-     * Normalizes date format to yyyy-MM-dd for consistent handling
-     */
-    private String normalizeDate(String dateStr) {
-        if (dateStr == null || dateStr.trim().isEmpty()) {
-            return "";
-        }
-        
-        // Check if date is already in YYYY-MM-DD format
-        if (dateStr.matches("\\d{4}-\\d{2}-\\d{2}")) {
-            return dateStr;
-        }
-        
-        // Try to convert from DD.MM.YYYY to YYYY-MM-DD
-        try {
-            String[] parts = dateStr.split("\\.");
-            if (parts.length == 3) {
-                String day = parts[0].length() == 1 ? "0" + parts[0] : parts[0];
-                String month = parts[1].length() == 1 ? "0" + parts[1] : parts[1];
-                String year = parts[2];
-                return year + "-" + month + "-" + day;
-            }
-        } catch (Exception e) {
-            System.err.println("Error normalizing date '" + dateStr + "': " + e.getMessage());
-        }
-        
-        // Return original string if we can't normalize it
-        return dateStr;
-    }
-
-    private String readRequestBody(HttpExchange exchange) throws IOException {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
-            StringBuilder requestBody = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                requestBody.append(line);
-            }
-            String result = requestBody.toString();
-            System.out.println("Read request body: " + result);
-            return result;
-        } catch (Exception e) {
-            System.err.println("Error reading request body: " + e.getMessage());
-            e.printStackTrace();
-            return "";
-        }
-    }
-
     private void sendJsonResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
         exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(statusCode, response.getBytes(StandardCharsets.UTF_8).length);
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(response.getBytes(StandardCharsets.UTF_8));
-        }
+        Compression.send(exchange, statusCode, response.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendBadRequest(HttpExchange exchange, IllegalArgumentException e) throws IOException {
+        int status = e instanceof JsonReader.BodyTooLargeException ? 413 : 400;
+        sendErrorResponse(exchange, status, e.getMessage());
     }
 
     private void sendErrorResponse(HttpExchange exchange, int statusCode, String errorMessage) throws IOException {
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent computations: while one caller computes the value for a key, the
+ * callers that ask for the same key wait for its result instead of computing it again.
+ *
+ * <p>Each computation is tagged with the store version it reads. A caller only joins one that
+ * reads the same or a newer version, so it never receives a value older than its own snapshot,
+ * for example one that misses an expense the same client has just added.
+ *
+ * @param <V> The type of the computed values.
+ */
+public class SingleFlight<V> {
+
+    /**
+     * A computation that may fail with an I/O error.
+     *
+     * @param <V> The type of the value.
+     */
+    @FunctionalInterface
+    public interface Computation<V> {
+        V compute() throws IOException;
+    }
+
+    private record Flight<V>(long version, CompletableFuture<V> result) {
+    }
+
+    private final ConcurrentHashMap<String, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Returns the value for a key, computing it unless a computation of the same key at the same
+     * or a newer version is already running.
+     *
+     * @param key         The key.
+     * @param version     The store version the caller reads.
+     * @param computation Computes the value at that version.
+     * @return The value.
+     * @throws IOException If the computation failed.
+     */
+    public V run(String key, long version, Computation<V> computation) throws IOException {
+        Flight<V> own = new Flight<>(version, new CompletableFuture<>());
+        Flight<V> flight = inFlight.compute(key,
+                (k, running) -> running != null && running.version() >= version ? running : own);
+
+        if (flight != own) {
+            shared.incrementAndGet();
+            try {
+                return flight.result().join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            V value = computation.compute();
+            own.result().complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            own.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * Returns how many callers received the result of another caller's computation.
+     *
+     * @return The number of shared results.
+     */
+    public long getShared() {
+        return shared.get();
+    }
+}
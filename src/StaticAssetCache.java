@@ -0,0 +1,396 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the static assets under a directory, built at startup.
+ *
+ * <p>Each asset has its content type, length, a content-hash ETag and, if it is compressible,
+ * gzip and deflate variants computed once. Assets up to {@code server.assets.maxCachedBytes}
+ * (default 256 KB) are kept in memory; larger ones are sent from disk with
+ * {@link FileChannel#transferTo}. A file watcher re-indexes assets that change, so requests never
+ * touch the file system for metadata.
+ *
+ * <p>Every asset is also served under a fingerprinted URL that contains its content hash, for
+ * example {@code /frontend/app.3f2a9c0d1e4b5a6f.js}, and references in HTML pages are rewritten
+ * to those URLs. Fingerprinted responses can be cached forever because a changed file gets a new
+ * URL; only the HTML pages themselves are revalidated.
+ */
+public class StaticAssetCache implements Closeable {
+    private static final long MAX_CACHED_BYTES = Long.getLong("server.assets.maxCachedBytes", 256 * 1024);
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    // Hex digits of the content hash used in ETags and fingerprints
+    private static final int HASH_LENGTH = 16;
+
+    private final Path root;
+    private final String urlPrefix;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+    // HTML pages as read from disk, before their references are rewritten
+    private final Map<String, Asset> htmlSources = new ConcurrentHashMap<>();
+    private WatchService watcher;
+
+    /**
+     * An indexed asset. Immutable; a changed file gets a new entry.
+     */
+    static final class Asset {
+        final Path file;
+        final String contentType;
+        final long length;
+        final String hash;
+        final String etag;
+        // Null for assets served from disk
+        final byte[] body;
+        // Null if the asset is not worth compressing
+        final byte[] gzip;
+        final byte[] deflate;
+
+        Asset(Path file, String contentType, long length, String hash, byte[] body, byte[] gzip, byte[] deflate) {
+            this.file = file;
+            this.contentType = contentType;
+            this.length = length;
+            this.hash = hash;
+            this.etag = "\"" + hash + "\"";
+            this.body = body;
+            this.gzip = gzip;
+            this.deflate = deflate;
+        }
+    }
+
+    private StaticAssetCache(Path root, String urlPrefix) {
+        this.root = root;
+        this.urlPrefix = urlPrefix;
+    }
+
+    /**
+     * Indexes every file under a directory and starts watching it for changes. A missing
+     * directory gives an empty cache.
+     *
+     * @param directory The directory, for example {@code "frontend"}.
+     * @param urlPrefix The URL path the directory is served under, for example {@code "/frontend/"}.
+     * @return The cache.
+     */
+    public static StaticAssetCache open(String directory, String urlPrefix) {
+        StaticAssetCache cache = new StaticAssetCache(Paths.get(directory).toAbsolutePath().normalize(), urlPrefix);
+        if (!Files.isDirectory(cache.root)) {
+            Log.warn("Static asset directory not found: " + cache.root);
+            return cache;
+        }
+        try (Stream<Path> files = Files.walk(cache.root)) {
+            files.filter(Files::isRegularFile).forEach(cache::reindex);
+        } catch (IOException e) {
+            Log.warn("Error indexing static assets: " + e.getMessage());
+        }
+        cache.rewriteHtml();
+        cache.startWatcher();
+        Log.info("Indexed " + cache.assets.size() + " static assets from " + cache.root);
+        return cache;
+    }
+
+    /**
+     * Serves an asset if the URL path names one.
+     *
+     * @param exchange The exchange.
+     * @param urlPath  The request path, for example {@code "/frontend/app.js"}.
+     * @return True if the response was sent; false if there is no such asset.
+     */
+    public boolean serve(HttpExchange exchange, String urlPath) throws IOException {
+        Asset asset = assets.get(urlPath);
+        boolean immutable = false;
+        if (asset == null) {
+            // A fingerprinted URL names the current asset if the hash still matches. An outdated
+            // hash, from a page loaded before the file changed, gets the current content uncached.
+            int hashEnd = urlPath.lastIndexOf('.');
+            int hashStart = hashEnd > 0 ? urlPath.lastIndexOf('.', hashEnd - 1) : -1;
+            if (hashStart <= urlPath.lastIndexOf('/') || !isHash(urlPath.substring(hashStart + 1, hashEnd))) {
+                return false;
+            }
+            asset = assets.get(urlPath.substring(0, hashStart) + urlPath.substring(hashEnd));
+            if (asset == null) {
+                return false;
+            }
+            immutable = asset.hash.equals(urlPath.substring(hashStart + 1, hashEnd));
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", asset.contentType);
+        if (asset.gzip != null) {
+            headers.add("Vary", "Accept-Encoding");
+        }
+        if (ETags.notModified(exchange, asset.etag)) {
+            return true;
+        }
+        if (immutable) {
+            headers.set("Cache-Control", IMMUTABLE);
+        }
+
+        String encoding = asset.gzip != null ? Compression.negotiate(exchange) : null;
+        if (encoding != null) {
+            byte[] compressed = encoding.equals("gzip") ? asset.gzip : asset.deflate;
+            headers.set("Content-Encoding", encoding);
+            headers.set("ETag", Compression.variantTag(asset.etag, encoding));
+            send(exchange, compressed);
+        } else if (asset.body != null) {
+            send(exchange, asset.body);
+        } else {
+            sendFromDisk(exchange, asset);
+        }
+        return true;
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void sendFromDisk(HttpExchange exchange, Asset asset) throws IOException {
+        try (FileChannel channel = FileChannel.open(asset.file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                WritableByteChannel target = Channels.newChannel(os);
+                long position = 0;
+                while (position < length) {
+                    long sent = channel.transferTo(position, length - position, target);
+                    if (sent <= 0) {
+                        break;
+                    }
+                    position += sent;
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-reads one file into the index, or drops it if it no longer exists.
+     */
+    private void reindex(Path file) {
+        String urlPath = urlPrefix + root.relativize(file).toString().replace('\\', '/');
+        Map<String, Asset> target = isHtml(urlPath) ? htmlSources : assets;
+        if (!Files.isRegularFile(file)) {
+            target.remove(urlPath);
+            assets.remove(urlPath);
+            return;
+        }
+        try {
+            target.put(urlPath, load(file));
+        } catch (IOException e) {
+            // The file may be mid-write; the next change event re-indexes it
+            Log.warn("Error indexing static asset " + file + ": " + e.getMessage());
+            target.remove(urlPath);
+            assets.remove(urlPath);
+        }
+    }
+
+    /**
+     * Rebuilds every HTML page with its asset references pointing at fingerprinted URLs. Runs
+     * after indexing and after any asset changes, since a changed asset changes its URL.
+     */
+    private void rewriteHtml() {
+        for (Map.Entry<String, Asset> page : htmlSources.entrySet()) {
+            Asset source = page.getValue();
+            String html;
+            try {
+                html = new String(source.body != null ? source.body : Files.readAllBytes(source.file), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                Log.warn("Error rewriting " + source.file + ": " + e.getMessage());
+                continue;
+            }
+            for (Map.Entry<String, Asset> asset : assets.entrySet()) {
+                String urlPath = asset.getKey();
+                if (!isHtml(urlPath)) {
+                    html = html.replace("\"" + urlPath + "\"", "\"" + fingerprint(urlPath, asset.getValue().hash) + "\"");
+                }
+            }
+            try {
+                assets.put(page.getKey(), fromBytes(source.file, source.contentType, html.getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                Log.warn("Error rewriting " + source.file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Inserts a content hash before the extension: {@code /frontend/app.js} becomes
+     * {@code /frontend/app.<hash>.js}.
+     */
+    static String fingerprint(String urlPath, String hash) {
+        int dot = urlPath.lastIndexOf('.');
+        if (dot <= urlPath.lastIndexOf('/')) {
+            return urlPath + "." + hash;
+        }
+        return urlPath.substring(0, dot) + "." + hash + urlPath.substring(dot);
+    }
+
+    private static boolean isHash(String segment) {
+        if (segment.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.digit(segment.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHtml(String urlPath) {
+        return urlPath.endsWith(".html");
+    }
+
+    private static Asset load(Path file) throws IOException {
+        String contentType = contentType(file.getFileName().toString());
+        long length = Files.size(file);
+        boolean compressible = Compression.isCompressible(contentType) && length >= Compression.MIN_SIZE;
+
+        if (length <= MAX_CACHED_BYTES || compressible) {
+            return fromBytes(file, contentType, Files.readAllBytes(file));
+        }
+
+        // Too large to keep: hash it in a streaming pass and serve it from disk
+        MessageDigest digest = newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return new Asset(file, contentType, length, toHex(digest.digest()), null, null, null);
+    }
+
+    private static Asset fromBytes(Path file, String contentType, byte[] body) throws IOException {
+        boolean compressible = Compression.isCompressible(contentType) && body.length >= Compression.MIN_SIZE;
+        byte[] gzip = compressible ? Compression.compress(body, "gzip") : null;
+        byte[] deflate = compressible ? Compression.compress(body, "deflate") : null;
+        return new Asset(file, contentType, body.length, hash(body),
+                body.length <= MAX_CACHED_BYTES ? body : null, gzip, deflate);
+    }
+
+    /**
+     * Returns a short hex SHA-256 of content, used as its ETag and fingerprint.
+     */
+    static String hash(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JDK has SHA-256
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(HASH_LENGTH);
+        for (int i = 0; i < HASH_LENGTH / 2; i++) {
+            sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    static String contentType(String name) {
+        if (name.endsWith(".html")) {
+            return "text/html; charset=utf-8";
+        } else if (name.endsWith(".css")) {
+            return "text/css; charset=utf-8";
+        } else if (name.endsWith(".js")) {
+            return "application/javascript; charset=utf-8";
+        } else if (name.endsWith(".json")) {
+            return "application/json";
+        } else if (name.endsWith(".svg")) {
+            return "image/svg+xml";
+        } else if (name.endsWith(".png")) {
+            return "image/png";
+        } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else if (name.endsWith(".gif")) {
+            return "image/gif";
+        } else if (name.endsWith(".ico")) {
+            return "image/x-icon";
+        } else {
+            return "application/octet-stream";
+        }
+    }
+
+    private void startWatcher() {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            try (Stream<Path> dirs = Files.walk(root)) {
+                for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Static assets will not be reloaded, cannot watch " + root + ": " + e.getMessage());
+            return;
+        }
+
+        Thread thread = new Thread(this::watch, "static-asset-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost: re-index everything
+                        assets.values().removeIf(asset -> !Files.isRegularFile(asset.file));
+                        htmlSources.values().removeIf(asset -> !Files.isRegularFile(asset.file));
+                        try (Stream<Path> files = Files.walk(root)) {
+                            files.filter(Files::isRegularFile).forEach(this::reindex);
+                        } catch (IOException e) {
+                            Log.warn("Error re-indexing static assets: " + e.getMessage());
+                        }
+                        continue;
+                    }
+                    Path file = dir.resolve((Path) event.context());
+                    if (!Files.isDirectory(file)) {
+                        reindex(file);
+                    }
+                }
+                rewriteHtml();
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Cache closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that {@link ChangeJournal#since(long, long)} returns the changes after a version while
+ * they are in the journal, and null once any of them has been evicted.
+ */
+public class ChangeJournalTest {
+
+  public static void main(String[] args) {
+    returnsChangesAfterVersion();
+    returnsNullAfterEviction();
+    returnsNullWhenPartOfBatchIsEvicted();
+    returnsNullForUnknownVersions();
+    System.out.println("ChangeJournalTest passed");
+  }
+
+  static void returnsChangesAfterVersion() {
+    ChangeJournal journal = new ChangeJournal(4, 10);
+    add(journal, 11, 12, 13);
+    Check.equal(List.of(11L, 12L, 13L), versions(journal.since(10, 13)), "changes after the base");
+    Check.equal(List.of(13L), versions(journal.since(12, 13)), "changes after 12");
+    Check.equal(List.of(), versions(journal.since(13, 13)), "changes after the latest version");
+    Check.equal(List.of(11L, 12L), versions(journal.since(10, 12)), "changes up to the snapshot");
+  }
+
+  static void returnsNullAfterEviction() {
+    ChangeJournal journal = new ChangeJournal(3, 0);
+    add(journal, 1, 2, 3);
+    Check.equal(List.of(1L, 2L, 3L), versions(journal.since(0, 3)), "full journal");
+
+    add(journal, 4);
+    Check.equal(null, journal.since(0, 4), "after the change of version 1 was evicted");
+    Check.equal(List.of(2L, 3L, 4L), versions(journal.since(1, 4)), "changes still in the journal");
+
+    add(journal, 5, 6, 7);
+    Check.equal(null, journal.since(3, 7), "after the whole journal was replaced");
+    Check.equal(List.of(5L, 6L, 7L), versions(journal.since(4, 7)), "changes after the eviction");
+  }
+
+  static void returnsNullWhenPartOfBatchIsEvicted() {
+    ChangeJournal journal = new ChangeJournal(3, 0);
+    // A batch shares one version
+    add(journal, 1, 1, 2);
+    Check.equal(List.of(1L, 1L, 2L), versions(journal.since(0, 2)), "batch in the journal");
+
+    add(journal, 3);
+    Check.equal(null, journal.since(0, 3), "after half of the batch was evicted");
+    Check.equal(List.of(2L, 3L), versions(journal.since(1, 3)), "changes after the batch");
+  }
+
+  static void returnsNullForUnknownVersions() {
+    ChangeJournal journal = new ChangeJournal(3, 5);
+    Check.equal(null, journal.since(4, 5), "version before the journal started");
+    Check.equal(List.of(), versions(journal.since(5, 5)), "empty journal at its base version");
+    add(journal, 6);
+    Check.equal(null, journal.since(7, 6), "version newer than the snapshot");
+  }
+
+  private static void add(ChangeJournal journal, long... versions) {
+    for (long version : versions) {
+      journal.record(new ChangeJournal.Change(version, ChangeJournal.Kind.ADD, (int) version, -1, -1, null));
+    }
+  }
+
+  private static List<Long> versions(List<ChangeJournal.Change> changes) {
+    if (changes == null) {
+      throw new AssertionError("Expected changes but the journal asked for a resync");
+    }
+    List<Long> versions = new ArrayList<>();
+    for (ChangeJournal.Change change : changes) {
+      versions.add(change.version());
+    }
+    return versions;
+  }
+}
@@ -0,0 +1,51 @@
+import java.util.Objects;
+
+/**
+ * Assertions for the tests in this directory, which are plain classes with a {@code main} method
+ * so they run without a test framework. A failed check throws an {@link AssertionError}, which
+ * ends the test with a non-zero exit code.
+ */
+final class Check {
+
+  /**
+   * Code under test that may throw a checked exception.
+   */
+  interface Action {
+    void run() throws Exception;
+  }
+
+  private Check() {
+  }
+
+  static void equal(Object expected, Object actual, String what) {
+    if (!Objects.equals(expected, actual)) {
+      throw new AssertionError(what + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+  }
+
+  static void isTrue(boolean condition, String what) {
+    if (!condition) {
+      throw new AssertionError(what);
+    }
+  }
+
+  /**
+   * Runs an action that must throw.
+   *
+   * @param type   The expected exception type; subclasses match.
+   * @param action The action.
+   * @param what   Describes the check in the failure message.
+   * @return The exception thrown.
+   */
+  static <T extends Throwable> T fails(Class<T> type, Action action, String what) {
+    try {
+      action.run();
+    } catch (Throwable e) {
+      if (type.isInstance(e)) {
+        return type.cast(e);
+      }
+      throw new AssertionError(what + ": expected " + type.getSimpleName() + " but got " + e, e);
+    }
+    throw new AssertionError(what + ": expected " + type.getSimpleName() + " but nothing was thrown");
+  }
+}
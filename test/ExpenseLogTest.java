@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that {@link ExpenseLog} replays what it wrote, skips records it cannot read without
+ * shifting ids, and recovers from a record torn by a crash.
+ */
+public class ExpenseLogTest {
+
+  public static void main(String[] args) throws IOException {
+    Path dir = Files.createTempDirectory("expense-log-test");
+    replaysEscapedCategories(dir.resolve("escaped.log"));
+    skipsInvalidRecords(dir.resolve("invalid.log"));
+    discardsTornFinalRecord(dir.resolve("torn.log"));
+    System.out.println("ExpenseLogTest passed");
+  }
+
+  static void replaysEscapedCategories(Path file) throws IOException {
+    List<String> categories = List.of("tab\there", "line\nbreak", "carriage\rreturn",
+        "back\\slash", "\\t literal", "trailing\\");
+    try (ExpenseLog log = open(file)) {
+      for (String category : categories) {
+        log.append(new Expense(category, 1.25, "2024-01-15"));
+      }
+      log.appendUpdate(2, new Expense("new\tname\\", 2.5, "2024-02-01"));
+    }
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    Check.equal(categories.size() + 1, lines.size(), "one line per record");
+
+    List<String> replayed = replay(file);
+    List<String> expected = new ArrayList<>();
+    for (String category : categories) {
+      expected.add("add " + category + " 1.25 2024-01-15");
+    }
+    expected.add("update 2 new\tname\\ 2.5 2024-02-01");
+    Check.equal(expected, replayed, "replayed records");
+  }
+
+  static void skipsInvalidRecords(Path file) throws IOException {
+    Files.writeString(file, String.join("\n",
+        "ADD\t2024-01-01\t10.0\tFood",
+        "ADD\t2024-01-02\t5.0",
+        "ADD\t2024-01-03\tten\tFood",
+        "",
+        "XYZ\t1",
+        "DEL\tone",
+        "UPD\tx\t2024-01-04\t1.0\tFood",
+        "ADD\t2024-01-05\t7.5\tRent",
+        "UPD\t4\t2024-01-06\t8.0\tRent",
+        "DEL\t1") + "\n", StandardCharsets.UTF_8);
+
+    // The two unreadable ADDs keep ids 2 and 3, so the Rent expense is still id 4
+    Check.equal(List.of(
+        "add Food 10.0 2024-01-01",
+        "skip",
+        "skip",
+        "add Rent 7.5 2024-01-05",
+        "update 4 Rent 8.0 2024-01-06",
+        "delete 1"), replay(file), "replayed records");
+  }
+
+  static void discardsTornFinalRecord(Path file) throws IOException {
+    Files.writeString(file, "ADD\t2024-01-01\t10.0\tFood\nADD\t2024-01-0", StandardCharsets.UTF_8);
+    try (ExpenseLog log = open(file)) {
+      Check.equal(List.of("add Food 10.0 2024-01-01"), replay(log), "records before the torn one");
+      log.append(new Expense("Rent", 7.5, "2024-01-05"));
+    }
+    Check.equal("ADD\t2024-01-01\t10.0\tFood\nADD\t2024-01-05\t7.5\tRent\n",
+        Files.readString(file, StandardCharsets.UTF_8), "log after the next append");
+    Check.equal(List.of("add Food 10.0 2024-01-01", "add Rent 7.5 2024-01-05"), replay(file),
+        "records after reopening");
+  }
+
+  private static ExpenseLog open(Path file) throws IOException {
+    return new ExpenseLog(file.toString(), ExpenseLog.FsyncPolicy.PER_RECORD, 0);
+  }
+
+  private static List<String> replay(Path file) throws IOException {
+    try (ExpenseLog log = open(file)) {
+      return replay(log);
+    }
+  }
+
+  private static List<String> replay(ExpenseLog log) throws IOException {
+    List<String> records = new ArrayList<>();
+    log.replay(new ExpenseLog.Replayer() {
+      @Override
+      public void add(Expense expense) {
+        records.add("add " + describe(expense));
+      }
+
+      @Override
+      public void update(int id, Expense expense) {
+        records.add("update " + id + " " + describe(expense));
+      }
+
+      @Override
+      public void delete(int id) {
+        records.add("delete " + id);
+      }
+
+      @Override
+      public void skip() {
+        records.add("skip");
+      }
+    });
+    return records;
+  }
+
+  private static String describe(Expense expense) {
+    return expense.getCategory() + " " + expense.getAmount() + " " + expense.getDate();
+  }
+}
@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tests that {@link ExpenseSnapshot#positionAfter(ExpenseSnapshot.SortOrder, long, int)} continues
+ * every sort order after the cursor row, with ties on the sort key broken by row, and that a cursor
+ * stays valid when its row is deleted or later rows are added.
+ */
+public class ExpenseSnapshotTest {
+
+  public static void main(String[] args) {
+    ExpenseStore store = new ExpenseStore();
+    int food = store.internCategory("Food");
+    int rent = store.internCategory("Rent");
+    // Few distinct days and amounts, so both keys have many ties; rows are added out of date order
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      ids.add(store.add(19000 + (i * 7) % 5, 100 * ((i * 3) % 4), i % 2 == 0 ? food : rent));
+    }
+    for (int i = 0; i < 40; i += 6) {
+      store.remove(ids.get(i));
+    }
+    store.update(ids.get(1), new Expense("Food", 2.0, 19002));
+
+    ExpenseSnapshot snapshot = store.snapshot();
+    for (ExpenseSnapshot.SortOrder order : ExpenseSnapshot.SortOrder.values()) {
+      continuesAfterEveryRow(snapshot, order);
+      continuesAfterRetiredRows(snapshot, order);
+      continuesAfterAddedRows(store, order);
+    }
+    System.out.println("ExpenseSnapshotTest passed");
+  }
+
+  /**
+   * Pages through an order one row at a time and compares it with sorting the rows directly.
+   */
+  static void continuesAfterEveryRow(ExpenseSnapshot snapshot, ExpenseSnapshot.SortOrder order) {
+    List<Integer> expected = sortedRows(snapshot, order);
+    Check.equal(snapshot.size(), expected.size(), order + " size");
+    Check.equal(expected.isEmpty() ? -1 : expected.get(0),
+        rowOrEnd(snapshot, order, snapshot.nextCurrent(order, 0)), order + " first row");
+    for (int i = 0; i < expected.size(); i++) {
+      int row = expected.get(i);
+      int position = snapshot.nextCurrent(order, snapshot.positionAfter(order, snapshot.sortKey(order, row), row));
+      int next = i + 1 < expected.size() ? expected.get(i + 1) : -1;
+      Check.equal(next, rowOrEnd(snapshot, order, position), order + " after row " + row);
+    }
+  }
+
+  /**
+   * A cursor on a row deleted or replaced since the page was served continues with the next
+   * current row in the order.
+   */
+  static void continuesAfterRetiredRows(ExpenseSnapshot snapshot, ExpenseSnapshot.SortOrder order) {
+    List<Integer> expected = sortedRows(snapshot, order);
+    Comparator<Integer> comparator = comparator(snapshot, order);
+    for (int row = 0; row < snapshot.rowCount(); row++) {
+      if (snapshot.isCurrent(row)) {
+        continue;
+      }
+      int cursor = row;
+      int next = -1;
+      for (int candidate : expected) {
+        if (comparator.compare(candidate, cursor) > 0) {
+          next = candidate;
+          break;
+        }
+      }
+      int position = snapshot.nextCurrent(order, snapshot.positionAfter(order, snapshot.sortKey(order, row), row));
+      Check.equal(next, rowOrEnd(snapshot, order, position), order + " after retired row " + row);
+    }
+  }
+
+  /**
+   * Rows added after a page was served, including rows tied with the cursor, are found by a
+   * cursor taken from the older snapshot.
+   */
+  static void continuesAfterAddedRows(ExpenseStore store, ExpenseSnapshot.SortOrder order) {
+    ExpenseSnapshot before = store.snapshot();
+    List<Integer> seen = sortedRows(before, order);
+    int cursor = seen.get(seen.size() / 2);
+    int tied = store.add(before.epochDay(cursor), before.amountCents(cursor), before.categoryId(cursor));
+    store.add(19001, 150, 0);
+
+    ExpenseSnapshot after = store.snapshot();
+    List<Integer> expected = sortedRows(after, order);
+    List<Integer> rest = new ArrayList<>();
+    int position = after.nextCurrent(order, after.positionAfter(order, before.sortKey(order, cursor), cursor));
+    while (position < after.positions(order)) {
+      rest.add(after.rowAt(order, position));
+      position = after.nextCurrent(order, position + 1);
+    }
+    Check.equal(expected.subList(expected.indexOf(cursor) + 1, expected.size()), rest,
+        order + " rows after the cursor");
+    // Ties are broken by row, so the new tied row follows the cursor only in ascending orders
+    Check.equal(!order.descending(), rest.contains(tied), order + " tied row after the cursor");
+  }
+
+  private static List<Integer> sortedRows(ExpenseSnapshot snapshot, ExpenseSnapshot.SortOrder order) {
+    List<Integer> rows = new ArrayList<>();
+    snapshot.scan((row, epochDay, amountCents, categoryId) -> rows.add(row));
+    rows.sort(comparator(snapshot, order));
+    return rows;
+  }
+
+  private static Comparator<Integer> comparator(ExpenseSnapshot snapshot, ExpenseSnapshot.SortOrder order) {
+    Comparator<Integer> ascending = Comparator.<Integer>comparingLong(row -> snapshot.sortKey(order, row))
+        .thenComparingInt(row -> row);
+    return order.descending() ? ascending.reversed() : ascending;
+  }
+
+  /**
+   * Returns the row at a position, or -1 past the end of the order.
+   */
+  private static int rowOrEnd(ExpenseSnapshot snapshot, ExpenseSnapshot.SortOrder order, int position) {
+    return position < snapshot.positions(order) ? snapshot.rowAt(order, position) : -1;
+  }
+}
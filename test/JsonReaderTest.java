@@ -0,0 +1,135 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests string escapes, surrogate pairs, the nesting limit and the body size limit of
+ * {@link JsonReader}, including the 413 response for an oversized report request.
+ */
+public class JsonReaderTest {
+
+    public static void main(String[] args) throws IOException {
+        decodesEscapes();
+        decodesSurrogatePairs();
+        rejectsInvalidStrings();
+        limitsNesting();
+        limitsBodySize();
+        answersOversizedBodyWith413();
+        System.out.println("JsonReaderTest passed");
+    }
+
+    static void decodesEscapes() throws IOException {
+        JsonReader reader = new JsonReader("{\"s\": \"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t \\u00e9\\u20AC\"}");
+        reader.beginObject();
+        Check.equal("s", reader.nextName(), "name");
+        Check.equal("q\" b\\ s/ \b\f\n\r\t \u00e9\u20ac", reader.nextString(), "decoded escapes");
+        reader.endObject();
+        reader.endDocument();
+    }
+
+    static void decodesSurrogatePairs() throws IOException {
+        String emoji = "\uD83D\uDE00";
+        JsonReader escaped = new JsonReader("[\"\\uD83D\\uDE00\"]");
+        escaped.beginArray();
+        Check.equal(emoji, escaped.nextString(), "escaped surrogate pair");
+        escaped.endArray();
+
+        // Raw UTF-8 whose surrogate pair straddles the reader's 1024 character buffer
+        String padding = "x".repeat(1021);
+        byte[] body = ("[\"" + padding + emoji + "\"]").getBytes(StandardCharsets.UTF_8);
+        JsonReader raw = new JsonReader(new ByteArrayInputStream(body), body.length);
+        raw.beginArray();
+        Check.equal(padding + emoji, raw.nextString(), "raw surrogate pair across buffers");
+        raw.endArray();
+        raw.endDocument();
+    }
+
+    static void rejectsInvalidStrings() {
+        String[] invalid = {"[\"\\x\"]", "[\"\\u12G4\"]", "[\"\\u12\"]", "[\"tab\there\"]", "[\"open"};
+        for (String json : invalid) {
+            Check.fails(IllegalArgumentException.class, () -> {
+                JsonReader reader = new JsonReader(json);
+                reader.beginArray();
+                reader.nextString();
+            }, "string " + json);
+        }
+    }
+
+    static void limitsNesting() throws IOException {
+        // The document itself takes one of the 64 levels
+        JsonReader deepest = new JsonReader("[".repeat(63) + "]".repeat(63));
+        deepest.skipValue();
+        deepest.endDocument();
+
+        IllegalArgumentException e = Check.fails(IllegalArgumentException.class,
+                () -> new JsonReader("[".repeat(64) + "]".repeat(64)).skipValue(), "64 nested arrays");
+        Check.isTrue(e.getMessage().contains("nested too deeply"), "depth error: " + e.getMessage());
+        Check.fails(IllegalArgumentException.class,
+                () -> new JsonReader("{\"a\":".repeat(100_000)).skipValue(), "deeply nested objects");
+    }
+
+    static void limitsBodySize() throws IOException {
+        byte[] body = "{\"category\": \"Food\"}".getBytes(StandardCharsets.UTF_8);
+        JsonReader fits = new JsonReader(new ByteArrayInputStream(body), body.length);
+        fits.skipValue();
+        fits.endDocument();
+
+        Check.fails(JsonReader.BodyTooLargeException.class, () -> {
+            JsonReader reader = new JsonReader(new ByteArrayInputStream(body), body.length - 1);
+            reader.skipValue();
+            reader.endDocument();
+        }, "body one byte over the limit");
+    }
+
+    static void answersOversizedBodyWith413() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExpenseStore store = new ExpenseStore();
+        server.createContext("/api/reports",
+                new ReportsHandler(store, new ReportCache(store, ReportCache.DEFAULT_MAX_BYTES)));
+        server.start();
+        try {
+            URL url = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/api/reports").toURL();
+            byte[] body = ("{\"type\": \"category\", \"category\": \""
+                    + "x".repeat(JsonReader.MAX_BODY_BYTES) + "\"}").getBytes(StandardCharsets.UTF_8);
+            // With a Content-Length the body is rejected before it is read; chunked, once the limit is crossed
+            Check.equal(413, post(url, body, false), "status with Content-Length");
+            Check.equal(413, post(url, body, true), "status when chunked");
+            Check.equal(200, post(url, "{\"type\": \"category\"}".getBytes(StandardCharsets.UTF_8), false),
+                    "status of a small request");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static int post(URL url, byte[] body, boolean chunked) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (chunked) {
+            connection.setChunkedStreamingMode(8192);
+        } else {
+            connection.setFixedLengthStreamingMode(body.length);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        } catch (IOException e) {
+            // The server may answer and close before the whole body is sent
+        }
+        int status = connection.getResponseCode();
+        InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (response != null) {
+            response.readAllBytes();
+            response.close();
+        }
+        connection.disconnect();
+        return status;
+    }
+}